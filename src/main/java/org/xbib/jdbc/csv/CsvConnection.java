@@ -102,6 +102,10 @@ public class CsvConnection implements Connection {
      * Lookup table with column data types for each table
      */
     private Map<String, String> columnTypes = new HashMap();
+    /**
+     * Lookup table with the columns that each table is sorted by
+     */
+    private Map<String, String> sortedBy = new HashMap<String, String>();
 
     private Map<String, Class<?>> typemap = new HashMap();
     /**
@@ -133,6 +137,23 @@ public class CsvConnection implements Connection {
     private boolean autoCommit;
     private String quoteStyle;
     private List<int[]> fixedWidthColumns = null;
+    /**
+     * Approximate number of bytes of buffered rows each query keeps in memory
+     * before writing further rows to a temporary file
+     */
+    private long memoryBudget = Long.parseLong(CsvDriver.DEFAULT_MEMORY_BUDGET);
+    /**
+     * Directory for temporary files, or null for the system default
+     */
+    private File tempDirectory = null;
+    /**
+     * Minimum number of rows to sort using several threads
+     */
+    private int parallelSortThreshold = Integer.parseInt(CsvDriver.DEFAULT_PARALLEL_SORT_THRESHOLD);
+    /**
+     * Number of rows to aggregate before using several threads
+     */
+    private int parallelAggregationThreshold = Integer.parseInt(CsvDriver.DEFAULT_PARALLEL_AGGREGATION_THRESHOLD);
 
     /**
      * Set defaults for connection.
@@ -219,6 +240,11 @@ public class CsvConnection implements Connection {
             columnTypes.put(null, info.getProperty(CsvDriver.COLUMN_TYPES));
         }
         columnTypes.putAll(getMatchingProperties(info, CsvDriver.COLUMN_TYPES + "."));
+        // set global sortedBy and sortedBy.tablename values.
+        if (info.getProperty(CsvDriver.SORTED_BY) != null) {
+            sortedBy.put(null, info.getProperty(CsvDriver.SORTED_BY));
+        }
+        sortedBy.putAll(getMatchingProperties(info, CsvDriver.SORTED_BY + "."));
 
         // are files indexed? ()
         if (info.getProperty(CsvDriver.INDEXED_FILES) != null) {
@@ -274,6 +300,14 @@ public class CsvConnection implements Connection {
         setIgnoreUnparseableLines(Boolean.parseBoolean(info.getProperty(
                 CsvDriver.IGNORE_UNPARSEABLE_LINES,
                 CsvDriver.DEFAULT_IGNORE_UNPARSEABLE_LINES)));
+        setMemoryBudget(info.getProperty(CsvDriver.MEMORY_BUDGET, CsvDriver.DEFAULT_MEMORY_BUDGET));
+        if (info.getProperty(CsvDriver.TEMP_DIRECTORY) != null) {
+            tempDirectory = new File(info.getProperty(CsvDriver.TEMP_DIRECTORY));
+        }
+        setParallelSortThreshold(info.getProperty(CsvDriver.PARALLEL_SORT_THRESHOLD,
+                CsvDriver.DEFAULT_PARALLEL_SORT_THRESHOLD));
+        setParallelAggregationThreshold(info.getProperty(CsvDriver.PARALLEL_AGGREGATION_THRESHOLD,
+                CsvDriver.DEFAULT_PARALLEL_AGGREGATION_THRESHOLD));
 
     }
 
@@ -324,6 +358,69 @@ public class CsvConnection implements Connection {
         }
     }
 
+    private void setMemoryBudget(String property) throws SQLException {
+        try {
+            memoryBudget = Long.parseLong(property.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid " + CsvDriver.MEMORY_BUDGET + ": " + property);
+        }
+    }
+
+    /**
+     * Accessor method for the memoryBudget property
+     *
+     * @return approximate number of bytes of buffered rows to keep in memory
+     * for each query, or 0 to keep all buffered rows in memory
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    private void setParallelSortThreshold(String property) throws SQLException {
+        try {
+            parallelSortThreshold = Integer.parseInt(property.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid " + CsvDriver.PARALLEL_SORT_THRESHOLD + ": " + property);
+        }
+    }
+
+    /**
+     * Accessor method for the parallelSortThreshold property
+     *
+     * @return minimum number of rows to sort using several threads, or 0 to
+     * always sort in one thread
+     */
+    public int getParallelSortThreshold() {
+        return parallelSortThreshold;
+    }
+
+    private void setParallelAggregationThreshold(String property) throws SQLException {
+        try {
+            parallelAggregationThreshold = Integer.parseInt(property.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid " + CsvDriver.PARALLEL_AGGREGATION_THRESHOLD + ": " + property);
+        }
+    }
+
+    /**
+     * Accessor method for the parallelAggregationThreshold property
+     *
+     * @return number of rows to aggregate in one thread before using several
+     * threads, or 0 to always aggregate in one thread
+     */
+    public int getParallelAggregationThreshold() {
+        return parallelAggregationThreshold;
+    }
+
+    /**
+     * Accessor method for the tempDirectory property
+     *
+     * @return directory for temporary files, or null for the system default
+     */
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
     private void setQuoteStyle(String property) {
         quoteStyle = property;
     }
@@ -357,7 +454,7 @@ public class CsvConnection implements Connection {
      */
     @Override
     public Statement createStatement() throws SQLException {
-        CsvStatement statement = new CsvStatement(this, java.sql.ResultSet.TYPE_SCROLL_INSENSITIVE);
+        CsvStatement statement = new CsvStatement(this, java.sql.ResultSet.TYPE_FORWARD_ONLY);
         statements.add(statement);
         return statement;
     }
@@ -392,7 +489,7 @@ public class CsvConnection implements Connection {
      */
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return new CsvPreparedStatement(this, sql, java.sql.ResultSet.TYPE_SCROLL_INSENSITIVE);
+        return new CsvPreparedStatement(this, sql, java.sql.ResultSet.TYPE_FORWARD_ONLY);
     }
 
     /**
@@ -783,7 +880,7 @@ public class CsvConnection implements Connection {
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType,
                                               int resultSetConcurrency) throws SQLException {
-         return prepareStatement(sql);
+        return new CsvPreparedStatement(this, sql, resultSetType);
     }
 
     /**
@@ -1148,6 +1245,21 @@ public class CsvConnection implements Connection {
         return retval;
     }
 
+    /**
+     * Get the columns that the rows of a table are sorted by.
+     *
+     * @param tableName name of table.
+     * @return comma-separated list of column names, each optionally followed
+     * by ASC or DESC, or null if the table is not known to be sorted.
+     */
+    public String getSortedBy(String tableName) {
+        String retval = sortedBy.get(tableName);
+        if (retval == null) {
+            retval = sortedBy.get(null);
+        }
+        return retval;
+    }
+
     /**
      * Set flag for reading indexed files.
      *
@@ -411,7 +411,7 @@ public class CsvDatabaseMetaData implements DatabaseMetaData {
                 internalStatement = (CsvStatement) createdByConnection.createStatement();
             }
             retval = new CsvResultSet(internalStatement, reader, "", queryEnvironment,
-                    false, 0, null, null, null, null, -1, 0, columnTypes, 0);
+                    false, 0, null, null, null, null, null, -1, 0, columnTypes, 0);
         } catch (ClassNotFoundException e) {
             throw new SQLException(e.getMessage());
         }
@@ -740,7 +740,7 @@ public class CsvDatabaseMetaData implements DatabaseMetaData {
             return true;
         }
 
-        if (type == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (type == ResultSet.TYPE_SCROLL_SENSITIVE || type == ResultSet.TYPE_SCROLL_INSENSITIVE) {
             return true;
         }
 
@@ -98,6 +98,14 @@ public class CsvDriver implements Driver {
     public static final String READER_CLASS_PREFIX = "class:";
     public static final String ZIP_FILE_PREFIX = "zip:";
     public static final String FIXED_WIDTHS = "fixedWidths";
+    public static final String MEMORY_BUDGET = "memoryBudget";
+    public static final String DEFAULT_MEMORY_BUDGET = "67108864";
+    public static final String TEMP_DIRECTORY = "tempDirectory";
+    public static final String PARALLEL_SORT_THRESHOLD = "parallelSortThreshold";
+    public static final String DEFAULT_PARALLEL_SORT_THRESHOLD = "100000";
+    public static final String PARALLEL_AGGREGATION_THRESHOLD = "parallelAggregationThreshold";
+    public static final String DEFAULT_PARALLEL_AGGREGATION_THRESHOLD = "100000";
+    public static final String SORTED_BY = "sortedBy";
 
     /**
      * Gets the propertyInfo attribute of the CsvDriver object
@@ -20,8 +20,14 @@ package org.xbib.jdbc.csv;
 
 import org.xbib.jdbc.csv.support.CsvReader;
 import org.xbib.jdbc.csv.support.DataReader;
+import org.xbib.jdbc.csv.support.ExternalSorter;
 import org.xbib.jdbc.csv.support.ListDataReader;
+import org.xbib.jdbc.csv.support.MemoryRowStore;
+import org.xbib.jdbc.csv.support.RowStore;
+import org.xbib.jdbc.csv.support.SortKeyEncoder;
+import org.xbib.jdbc.csv.support.SpillingRowStore;
 import org.xbib.jdbc.csv.support.StringConverter;
+import org.xbib.jdbc.csv.support.TopNSorter;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -50,10 +56,12 @@ import java.util.Calendar;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * This class implements the ResultSet interface for the CsvJdbc driver.
@@ -75,6 +83,11 @@ public class CsvResultSet implements ResultSet {
      */
     private CsvStatement statement;
     private int isScrollable = ResultSet.TYPE_SCROLL_SENSITIVE;
+    /**
+     * True if cursor can move backwards, requiring rows to be kept in memory
+     * once they have been read
+     */
+    private boolean scrollable;
     /**
      * Helper class that performs the actual file reads
      */
@@ -89,19 +102,86 @@ public class CsvResultSet implements ResultSet {
     private int lastIndexRead = -1;
     private Expression whereClause;
     private List<Expression> groupByColumns;
+    /**
+     * Positions in groupByColumns of the expressions of each grouping set,
+     * or null if there is a single grouping set of all GROUP BY expressions
+     */
+    private List<int[]> groupingSets;
     private List<Expression> distinctColumns;
     private Expression havingClause;
     private List<Object[]> orderByColumns;
     private List<Object[]> queryEnvironment;
     private List<AggregateFunction> aggregateFunctions;
-    private Set<List<Object>> distinctValues;
-    private Map<String, Object> recordEnvironment;
+    private List<AggregateFunction> groupAggregateFunctions;
+    private DistinctSet distinctValues;
+    /**
+     * Positions of the DISTINCT expressions in the order of the columns that
+     * the table is sorted by, and the direction of each, if records with the
+     * same values follow each other, and the values of the last distinct record
+     */
+    private int[] distinctKeyOrder;
+    private int[] distinctKeyDirections;
+    private List<Object> previousDistinctKeys;
+    /**
+     * True once the data reader has no more records
+     */
+    private boolean allRecordsRead = false;
+    private Object[] currentRecord;
+    /**
+     * Values of selected expressions for the current record, evaluated
+     * once when first read
+     */
+    private Object[] currentValues;
+    private Object[] currentValuesRecord;
+    /**
+     * Selected expressions compiled for the column types of the table, once
+     * the first record has been read
+     */
+    private Expression[] selectExpressions;
     private List<String> usedColumns;
     private String timeFormat;
     private String dateFormat;
     private String timeZone;
     private StringConverter converter;
-    private List<Map<String, Object>> bufferedRecordEnvironments = null;
+    private RowStore bufferedRecords = null;
+    /**
+     * Sorted rows of a forward only result set with ORDER BY, returned
+     * directly from the sorter instead of copying them to bufferedRecords.
+     */
+    private ExternalSorter sortedRecords = null;
+    /**
+     * Slots of columns, selected expressions and grouped rows in each record
+     */
+    private RowLayout queryLayout;
+    /**
+     * Selected expressions referenced by name in other clauses of the query,
+     * each with the slot that holds its value in each record
+     */
+    private List<Object[]> aliasColumns;
+    /**
+     * Slots holding the value of each ORDER BY expression in records being sorted
+     */
+    private int[] sortKeySlots;
+    /**
+     * Slot holding the byte array sort key of records being sorted
+     */
+    private int normalizedKeySlot;
+    private SortKeyEncoder sortKeyEncoder;
+    /**
+     * Positions of the GROUP BY expressions in the order of the columns that
+     * the table is sorted by, and the direction of each, if groups are read
+     * one at a time as the rows of each group follow each other
+     */
+    private int[] streamingKeyOrder;
+    private int[] streamingKeyDirections;
+    /**
+     * First record of the next group, and its GROUP BY values, when reading
+     * groups one at a time
+     */
+    private Object[] nextGroupRecord;
+    private List<Object> nextGroupKeys;
+    private boolean groupsStarted = false;
+    private int recordSize;
     private int currentRow;
     private boolean hitTail = false;
     private int maxRows;
@@ -110,29 +190,32 @@ public class CsvResultSet implements ResultSet {
     private boolean isClosed = false;
 
     /**
-     * Compares SQL ORDER BY expressions for two records.
+     * Compares the SQL ORDER BY values of two records, already evaluated into
+     * sort key slots of each record. Records that both have a byte array
+     * sort key encoding all their ORDER BY values are compared by that key.
      */
-    public class OrderByComparator implements Comparator<Map<String, Object>> {
+    public static class OrderByComparator implements Comparator<Object[]> {
 
-        public int compare(Map<String, Object> recordEnvironment1, Map<String, Object> recordEnvironment2) {
-            int retval = 0;
-            int i = 0;
-            while (i < orderByColumns.size() && retval == 0) {
-                Object[] o = orderByColumns.get(i);
-                Integer direction = (Integer) o[0];
-                Expression expr = (Expression) o[1];
-                recordEnvironment = recordEnvironment1;
-                Map<String, Object> objectEnvironment1 = updateRecordEnvironment(true);
-                if (converter != null) {
-                    objectEnvironment1.put("@STRINGCONVERTER", converter);
-                }
-                Comparable<Object> result1 = (Comparable<Object>) expr.eval(objectEnvironment1);
-                recordEnvironment = recordEnvironment2;
-                Map<String, Object> objectEnvironment2 = updateRecordEnvironment(true);
-                if (converter != null) {
-                    objectEnvironment2.put("@STRINGCONVERTER", converter);
-                }
-                Comparable<Object> result2 = (Comparable<Object>) expr.eval(objectEnvironment2);
+        private int[] keySlots;
+        private int[] directions;
+        private int normalizedKeySlot;
+
+        public OrderByComparator(int[] keySlots, int[] directions, int normalizedKeySlot) {
+            this.keySlots = keySlots;
+            this.directions = directions;
+            this.normalizedKeySlot = normalizedKeySlot;
+        }
+
+        public int compare(Object[] record1, Object[] record2) {
+            byte[] key1 = (byte[]) record1[normalizedKeySlot];
+            byte[] key2 = (byte[]) record2[normalizedKeySlot];
+            if (key1 != null && key2 != null) {
+                return SortKeyEncoder.compare(key1, key2);
+            }
+            for (int i = 0; i < keySlots.length; i++) {
+                Comparable<Object> result1 = (Comparable<Object>) record1[keySlots[i]];
+                Comparable<Object> result2 = (Comparable<Object>) record2[keySlots[i]];
+                int retval;
                 if (result1 == null) {
                     if (result2 == null) {
                         retval = 0;
@@ -144,12 +227,51 @@ public class CsvResultSet implements ResultSet {
                 } else {
                     retval = result1.compareTo(result2);
                 }
-                if (direction.intValue() < 0) {
-                    retval = -retval;
+                if (retval != 0) {
+                    return (directions[i] < 0) ? -retval : retval;
                 }
-                i++;
             }
-            return retval;
+            return 0;
+        }
+    }
+
+    /**
+     * Holds the rows of a scrollable result set as their positions in the
+     * data file, reading a row again each time the cursor moves back to it.
+     */
+    private class RecordPositionStore implements RowStore {
+
+        private long[] positions = new long[64];
+        private int size = 0;
+
+        public void add(Object[] row) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = ((CsvReader) reader).getRecordPosition();
+        }
+
+        public Object[] get(int index) throws SQLException {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Row " + index + " not read");
+            }
+            return completeRecord(((CsvReader) reader).getValuesAt(positions[index]));
+        }
+
+        public void release(int index) {
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        public void close() {
+            positions = new long[0];
+            size = 0;
         }
     }
 
@@ -161,6 +283,7 @@ public class CsvResultSet implements ResultSet {
                            int isScrollable,
                            Expression whereClause,
                            List<Expression> groupByColumns,
+                           List<int[]> groupingSets,
                            Expression havingClause,
                            List<Object[]> orderByColumns,
                            int sqlLimit,
@@ -172,6 +295,7 @@ public class CsvResultSet implements ResultSet {
         fetchSize = statement.getFetchSize();
         this.limit = sqlLimit;
         this.isScrollable = isScrollable;
+        this.scrollable = (isScrollable != ResultSet.TYPE_FORWARD_ONLY);
         this.reader = reader;
         this.tableName = tableName;
         this.queryEnvironment = new ArrayList<Object[]>(queryEnvironment);
@@ -182,6 +306,7 @@ public class CsvResultSet implements ResultSet {
         } else {
             this.groupByColumns = null;
         }
+        this.groupingSets = groupingSets;
         this.havingClause = havingClause;
         if (orderByColumns != null) {
             this.orderByColumns = new ArrayList<Object[]>(orderByColumns);
@@ -189,7 +314,8 @@ public class CsvResultSet implements ResultSet {
             this.orderByColumns = null;
         }
         if (isDistinct) {
-            this.distinctValues = new HashSet<List<Object>>();
+            CsvConnection connection = (CsvConnection) statement.getConnection();
+            this.distinctValues = new DistinctSet(connection.getMemoryBudget(), connection.getTempDirectory());
         }
         if (reader instanceof CsvReader || reader instanceof ListDataReader) {
             // timestampFormat = ((CsvConnection)statement.getConnection()).getTimestampFormat();
@@ -396,14 +522,195 @@ public class CsvResultSet implements ResultSet {
             }
         }
 
+        /*
+         * Give each column a slot in the records we read. Selected expressions
+         * used by name in the other clauses get extra slots of their own,
+         * hiding any table column with the same name.
+         */
+        RowLayout selectLayout = new RowLayout(converter);
+        for (int i = 0; i < columnNames.length; i++) {
+            selectLayout.setSlot(columnNames[i], i);
+            if (tableAlias != null) {
+                selectLayout.setSlot(tableAlias + "." + columnNames[i], i);
+            }
+        }
+        if (this.groupByColumns != null || this.aggregateFunctions.size() > 0) {
+            /*
+             * Each grouped record holds the accumulators of all aggregate
+             * functions for its group, including any used only in HAVING
+             * or ORDER BY.
+             */
+            this.groupAggregateFunctions = new ArrayList<AggregateFunction>(this.aggregateFunctions);
+            if (this.havingClause != null) {
+                addGroupAggregateFunctions(this.havingClause.aggregateFunctions());
+            }
+            if (this.orderByColumns != null) {
+                for (Object[] o : this.orderByColumns) {
+                    addGroupAggregateFunctions(((Expression) o[1]).aggregateFunctions());
+                }
+            }
+            for (AggregateFunction func : this.groupAggregateFunctions) {
+                func.setSlot(selectLayout.addSlot());
+            }
+        }
+        this.queryLayout = new RowLayout(selectLayout);
+        this.aliasColumns = new ArrayList<Object[]>();
+        for (int i = 0; i < this.queryEnvironment.size(); i++) {
+            Object[] o = this.queryEnvironment.get(i);
+            String key = ((String) o[0]).toUpperCase();
+            Expression expr = (Expression) o[1];
+            if (this.usedColumns.contains(key)) {
+                if (expr instanceof ColumnName &&
+                        selectLayout.getSlot(((ColumnName) expr).columnName) == selectLayout.getSlot(key)) {
+                    /*
+                     * Column selected under its own name, no extra slot needed.
+                     */
+                    continue;
+                }
+                int slot = this.queryLayout.addSlot();
+                this.queryLayout.setSlot(key, slot);
+                this.aliasColumns.add(new Object[]{Integer.valueOf(slot), expr});
+            }
+        }
+        if (this.orderByColumns != null) {
+            /*
+             * ORDER BY expressions are evaluated once for each record to be
+             * sorted, and the values kept in the record for comparing.
+             */
+            this.sortKeySlots = new int[this.orderByColumns.size()];
+            int[] directions = new int[this.sortKeySlots.length];
+            for (int i = 0; i < this.sortKeySlots.length; i++) {
+                this.sortKeySlots[i] = this.queryLayout.addSlot();
+                directions[i] = ((Integer) this.orderByColumns.get(i)[0]).intValue();
+            }
+            this.normalizedKeySlot = this.queryLayout.addSlot();
+            this.sortKeyEncoder = new SortKeyEncoder(this.sortKeySlots, directions);
+        }
+        this.recordSize = this.queryLayout.size();
+
+        /*
+         * Bind all expressions to the slots they read from. Selected expressions
+         * are bound last as ORDER BY and GROUP BY column numbers refer to them.
+         */
+        if (this.whereClause != null) {
+            this.whereClause.resolve(this.queryLayout);
+        }
+        if (this.groupByColumns != null) {
+            for (Expression expr : this.groupByColumns) {
+                expr.resolve(this.queryLayout);
+            }
+        }
+        if (this.distinctColumns != null) {
+            for (Expression expr : this.distinctColumns) {
+                expr.resolve(this.queryLayout);
+            }
+        }
+        if (this.havingClause != null) {
+            this.havingClause.resolve(this.queryLayout);
+        }
+        if (this.orderByColumns != null) {
+            for (Object[] o : this.orderByColumns) {
+                ((Expression) o[1]).resolve(this.queryLayout);
+            }
+        }
+        for (int i = 0; i < this.queryEnvironment.size(); i++) {
+            Object[] o = this.queryEnvironment.get(i);
+            ((Expression) o[1]).resolve(selectLayout);
+        }
+
+        /*
+         * Fold the parts of expressions that are the same for every row into
+         * constants. No rows are read if the WHERE or HAVING clause is never
+         * true.
+         */
+        if (this.whereClause != null) {
+            this.whereClause = this.whereClause.simplify();
+            if (this.whereClause.isConstant()) {
+                if (this.whereClause.isTrue(null)) {
+                    this.whereClause = null;
+                } else {
+                    allRecordsRead = true;
+                }
+            }
+        }
+        if (this.havingClause != null) {
+            this.havingClause = this.havingClause.simplify();
+            if (this.havingClause.isConstant()) {
+                if (this.havingClause.isTrue(null)) {
+                    this.havingClause = null;
+                } else {
+                    allRecordsRead = true;
+                }
+            }
+        }
+        if (this.orderByColumns != null) {
+            for (int i = 0; i < this.orderByColumns.size(); i++) {
+                Object[] o = this.orderByColumns.get(i);
+                this.orderByColumns.set(i, new Object[]{o[0], ((Expression) o[1]).simplify()});
+            }
+        }
+
         if (this.groupByColumns != null
                 || this.orderByColumns != null || this.aggregateFunctions.size() > 0
-                || this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
-            bufferedRecordEnvironments = new ArrayList<Map<String, Object>>();
+                || this.scrollable) {
+            /*
+             * Rows of SELECT DISTINCT written to temporary files are returned
+             * after the end of the data file, so they have no position in it.
+             */
+            if (this.groupByColumns == null && this.orderByColumns == null
+                    && this.aggregateFunctions.size() == 0 && this.distinctValues == null
+                    && reader instanceof CsvReader && ((CsvReader) reader).isSeekable()) {
+                bufferedRecords = new RecordPositionStore();
+            } else {
+                bufferedRecords = createRowStore();
+            }
             currentRow = 0;
         }
 
-        if (this.groupByColumns != null) {
+        if (this.groupByColumns != null && this.groupingSets == null
+                && this.orderByColumns == null && !this.scrollable) {
+            CsvConnection connection = (CsvConnection) statement.getConnection();
+            setStreamingKeyOrder(connection.getSortedBy(tableName));
+        }
+
+        if (this.distinctValues != null) {
+            CsvConnection connection = (CsvConnection) statement.getConnection();
+            List<Expression> keys = getDistinctExpressions();
+            int[] directions = new int[keys.size()];
+            this.distinctKeyOrder = getSortedKeyOrder(keys, connection.getSortedBy(tableName), directions);
+            this.distinctKeyDirections = directions;
+        }
+
+        boolean positioned = false;
+        try {
+            readBufferedRecords(sqlOffset);
+            positioned = true;
+        } finally {
+            if (!positioned) {
+                /*
+                 * Delete any temporary files written before the error.
+                 */
+                close();
+            }
+        }
+    }
+
+    /**
+     * Read, sort or aggregate all rows that must be read before the first
+     * row can be returned, and skip the rows before the SQL OFFSET.
+     */
+    private void readBufferedRecords(int sqlOffset) throws SQLException {
+        if (this.streamingKeyOrder != null) {
+            /*
+             * Table is sorted by the GROUP BY columns, so each group is read
+             * and returned as soon as a row with different values is read.
+             */
+            while (sqlOffset > 0 && readNextGroup()) {
+                sqlOffset--;
+            }
+            currentRecord = null;
+
+        } else if (this.groupByColumns != null) {
             /*
              * Read all rows and group them together based on GROUP BY expressions.
              */
@@ -411,47 +718,35 @@ public class CsvResultSet implements ResultSet {
             int savedLimit = limit;
             maxRows = 0;
             limit = -1;
-            ArrayList<ArrayList<Object>> groupOrder = new ArrayList<ArrayList<Object>>();
-            HashMap<ArrayList<Object>, ArrayList<Map<String, Object>>> groups = new HashMap<ArrayList<Object>, ArrayList<Map<String, Object>>>();
+            GroupAggregator aggregator = null;
             try {
-                while (next()) {
-                    Map<String, Object> objectEnvironment = updateRecordEnvironment(true);
-                    if (converter != null) {
-                        objectEnvironment.put("@STRINGCONVERTER", converter);
-                    }
-                    ArrayList<Object> groupByKeys = new ArrayList<Object>(this.groupByColumns.size());
-                    for (Expression expr : this.groupByColumns) {
-                        groupByKeys.add(expr.eval(objectEnvironment));
-                    }
-                    ArrayList<Map<String, Object>> groupByValues = groups.get(groupByKeys);
-                    if (groupByValues == null) {
-                        groupByValues = new ArrayList<Map<String, Object>>();
-                        groups.put(groupByKeys, groupByValues);
-                        groupOrder.add(groupByKeys);
+                aggregator = aggregateRecords();
+                bufferedRecords.clear();
+                if (this.groupingSets != null) {
+                    addGroupingSetRows(aggregator);
+                } else {
+                    Object[] groupRow;
+                    while ((groupRow = aggregator.next()) != null) {
+                        addGroupRow(groupRow);
                     }
-                    groupByValues.add(recordEnvironment);
                 }
-                bufferedRecordEnvironments.clear();
-                for (ArrayList<Object> groupByKey : groupOrder) {
-                    ArrayList<Map<String, Object>> values = groups.get(groupByKey);
 
-                    /*
-                     * Create a row in the ResultSet for each group with a
-                     * reference to all the rows in that group so we can
-                     * later calculate any aggregate functions for each group.
-                     */
-                    Map<String, Object> firstRow = new HashMap<String, Object>(values.get(0));
-                    firstRow.put("@GROUPROWS", values);
-
-                    if (this.havingClause == null || this.havingClause.isTrue(firstRow)) {
-                        bufferedRecordEnvironments.add(firstRow);
-                    }
-                }
+                aggregator.close();
+                aggregator = null;
 
+                /*
+                 * Sort with LIMIT and the maximum rows set by the caller, so
+                 * that only the first groups in sorted order are kept.
+                 */
+                maxRows = savedMaxRows;
+                limit = savedLimit;
                 if (this.orderByColumns != null) {
                     sortRows(sqlOffset);
                 }
             } finally {
+                if (aggregator != null) {
+                    aggregator.close();
+                }
                 maxRows = savedMaxRows;
                 limit = savedLimit;
             }
@@ -460,8 +755,7 @@ public class CsvResultSet implements ResultSet {
              * Rewind back to before the row so we can read it.
              */
             currentRow = 0;
-            recordEnvironment = null;
-            updateRecordEnvironment(false);
+            currentRecord = null;
             hitTail = true;
 
         } else if (this.aggregateFunctions.size() > 0) {
@@ -474,19 +768,28 @@ public class CsvResultSet implements ResultSet {
             maxRows = 0;
             limit = -1;
             try {
-                while (next()) {
-                    for (Object o : this.aggregateFunctions) {
-                        AggregateFunction func = (AggregateFunction) o;
-                        func.processRow(recordEnvironment);
-                    }
+                GroupAggregator aggregator = aggregateRecords();
+                Object[] groupRow;
+                try {
+                    groupRow = aggregator.next();
+                } finally {
+                    aggregator.close();
+                }
+                Object[] row = new Object[recordSize];
+                for (AggregateFunction func : this.groupAggregateFunctions) {
+                    Accumulator accumulator = (groupRow == null) ? func.createAccumulator()
+                            : (Accumulator) groupRow[func.slot];
+                    func.finish(accumulator);
+                    row[func.slot] = accumulator;
+                    func.finishGroup(row);
                 }
 
                 /*
                  * Create a single row ResultSet from the aggregate functions.
                  */
-                bufferedRecordEnvironments.clear();
+                bufferedRecords.clear();
                 if ((savedLimit < 0 || savedLimit > 0) && sqlOffset == 0) {
-                    bufferedRecordEnvironments.add(new HashMap<String, Object>());
+                    bufferedRecords.add(row);
                 }
             } finally {
                 maxRows = savedMaxRows;
@@ -497,34 +800,63 @@ public class CsvResultSet implements ResultSet {
              * Rewind back to before the row so we can read it.
              */
             currentRow = 0;
-            recordEnvironment = null;
-            updateRecordEnvironment(false);
+            currentRecord = null;
             hitTail = true;
 
+        } else if (this.orderByColumns != null && getSortedRowLimit(sqlOffset) >= 0) {
+            /*
+             * Only the first rows in sorted order are returned, so keep just
+             * those rows while reading, instead of sorting all rows.
+             */
+            TopNSorter sorter = new TopNSorter(createOrderByComparator(), getSortedRowLimit(sqlOffset));
+            while (readNextRecord()) {
+                setSortKeys(currentRecord);
+                sorter.add(currentRecord);
+            }
+            hitTail = true;
+            addSortedRows(sorter.getSortedRows(), sqlOffset);
+
+            /*
+             * Rewind back to before first row so we can now read them in sorted order.
+             */
+            currentRow = 0;
+            currentRecord = null;
         } else if (this.orderByColumns != null) {
             /*
-             * Read all rows into memory and sort them based on SQL ORDER BY expressions.
+             * Read all rows and sort them based on SQL ORDER BY expressions,
+             * writing rows that do not fit in memory to temporary files once.
              */
-            int savedMaxRows = maxRows;
-            int savedLimit = limit;
-            maxRows = 0;
-            limit = -1;
+            ExternalSorter sorter = createExternalSorter();
             try {
-                while (next()) {
-                    ;
+                while (readNextRecord()) {
+                    setSortKeys(currentRecord);
+                    sorter.add(currentRecord);
+                }
+                hitTail = true;
+                sorter.sort();
+                while (sqlOffset > 0 && sorter.next() != null) {
+                    sqlOffset--;
+                }
+                if (this.scrollable) {
+                    Object[] row;
+                    while ((row = sorter.next()) != null) {
+                        bufferedRecords.add(row);
+                    }
+                } else {
+                    sortedRecords = sorter;
+                    sorter = null;
                 }
             } finally {
-                maxRows = savedMaxRows;
-                limit = savedLimit;
+                if (sorter != null) {
+                    sorter.close();
+                }
             }
-            sortRows(sqlOffset);
 
             /*
              * Rewind back to before first row so we can now read them in sorted order.
              */
             currentRow = 0;
-            recordEnvironment = null;
-            updateRecordEnvironment(false);
+            currentRecord = null;
         } else if (sqlOffset > 0) {
 
             int savedMaxRows = maxRows;
@@ -546,13 +878,27 @@ public class CsvResultSet implements ResultSet {
                 maxRows = savedMaxRows;
                 limit = savedLimit;
                 currentRow = 0;
-                if (bufferedRecordEnvironments != null) {
-                    bufferedRecordEnvironments.clear();
+                if (bufferedRecords != null) {
+                    bufferedRecords.clear();
                 }
             }
         }
     }
 
+    /**
+     * Add aggregate functions to those evaluated for each group, skipping any
+     * already added.
+     *
+     * @param funcs aggregate functions used in a clause.
+     */
+    private void addGroupAggregateFunctions(List<AggregateFunction> funcs) {
+        for (AggregateFunction func : funcs) {
+            if (!this.groupAggregateFunctions.contains(func)) {
+                this.groupAggregateFunctions.add(func);
+            }
+        }
+    }
+
     /**
      * Check that all selected and ORDER BY columns also appear in any GROUP BY
      * clause.
@@ -638,32 +984,104 @@ public class CsvResultSet implements ResultSet {
             if (this.havingClause != null && this.havingClause.aggregateFunctions().size() > 0) {
                 hasAggregateFunctions = true;
             }
-            if (!hasAggregateFunctions) {
-                this.distinctValues = new HashSet<List<Object>>();
+            if (!hasAggregateFunctions && this.groupingSets == null) {
+                CsvConnection connection = (CsvConnection) statement.getConnection();
+                if (this.distinctValues != null) {
+                    this.distinctValues.close();
+                }
+                this.distinctValues = new DistinctSet(connection.getMemoryBudget(), connection.getTempDirectory());
                 this.distinctColumns = new ArrayList<Expression>(this.groupByColumns);
                 this.groupByColumns = null;
             }
         }
     }
 
-    private void sortRows(int sqlOffset) {
-        Map<String, Object>[] allRows = new Map[bufferedRecordEnvironments.size()];
-        for (int i = 0; i < allRows.length; i++) {
-            allRows[i] = bufferedRecordEnvironments.get(i);
-        }
-        bufferedRecordEnvironments.clear();
-        Arrays.sort(allRows, new OrderByComparator());
-        int rowLimit = allRows.length;
-        if (maxRows != 0 && maxRows < rowLimit) {
+    /**
+     * @return number of rows from the start of the sorted rows that are needed
+     * for OFFSET, LIMIT and the maximum rows set by the caller, or -1 if all
+     * sorted rows are needed.
+     */
+    private int getSortedRowLimit(int sqlOffset) {
+        int rowLimit = -1;
+        if (maxRows != 0) {
             rowLimit = maxRows;
         }
-        if (limit >= 0 && sqlOffset + limit < rowLimit) {
+        if (limit >= 0 && (rowLimit < 0 || sqlOffset + limit < rowLimit)) {
             rowLimit = sqlOffset + limit;
         }
+        return rowLimit;
+    }
 
-        for (int i = sqlOffset; i < rowLimit; i++) {
-            bufferedRecordEnvironments.add(allRows[i]);
+    private OrderByComparator createOrderByComparator() {
+        int[] directions = new int[this.orderByColumns.size()];
+        for (int i = 0; i < directions.length; i++) {
+            directions[i] = ((Integer) this.orderByColumns.get(i)[0]).intValue();
         }
+        return new OrderByComparator(this.sortKeySlots, directions, this.normalizedKeySlot);
+    }
+
+    /**
+     * Evaluate the ORDER BY expressions for a record into its sort key slots,
+     * and encode them as a byte array sort key if possible.
+     */
+    private void setSortKeys(Object[] record) {
+        for (int i = 0; i < this.sortKeySlots.length; i++) {
+            Expression expr = (Expression) this.orderByColumns.get(i)[1];
+            record[this.sortKeySlots[i]] = expr.eval(record);
+        }
+        record[this.normalizedKeySlot] = this.sortKeyEncoder.encode(record);
+    }
+
+    private void addSortedRows(Object[][] sortedRows, int sqlOffset) throws SQLException {
+        for (int i = sqlOffset; i < sortedRows.length; i++) {
+            bufferedRecords.add(sortedRows[i]);
+        }
+    }
+
+    private void sortRows(int sqlOffset) throws SQLException {
+        int rowCount = bufferedRecords.size();
+        int rowLimit = getSortedRowLimit(sqlOffset);
+        if (rowLimit >= 0) {
+            TopNSorter sorter = new TopNSorter(createOrderByComparator(), rowLimit);
+            for (int i = 0; i < rowCount; i++) {
+                Object[] row = bufferedRecords.get(i);
+                setSortKeys(row);
+                sorter.add(row);
+                bufferedRecords.release(i);
+            }
+            bufferedRecords.clear();
+            addSortedRows(sorter.getSortedRows(), sqlOffset);
+            return;
+        }
+
+        ExternalSorter sorter = createExternalSorter();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                Object[] row = bufferedRecords.get(i);
+                setSortKeys(row);
+                sorter.add(row);
+                bufferedRecords.release(i);
+            }
+            bufferedRecords.clear();
+            sorter.sort();
+            Object[] row;
+            for (int i = 0; (row = sorter.next()) != null; i++) {
+                if (i >= sqlOffset) {
+                    bufferedRecords.add(row);
+                }
+            }
+        } finally {
+            sorter.close();
+        }
+    }
+
+    private ExternalSorter createExternalSorter() throws SQLException {
+        CsvConnection connection = (CsvConnection) statement.getConnection();
+        ExternalSorter sorter = new ExternalSorter(createOrderByComparator(),
+                connection.getMemoryBudget(), connection.getTempDirectory(),
+                connection.getParallelSortThreshold());
+        sorter.setNormalizedKeySlot(this.normalizedKeySlot);
+        return sorter;
     }
 
     private void checkOpen() throws SQLException {
@@ -692,13 +1110,28 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
+        if (sortedRecords != null) {
+            currentRecord = sortedRecords.next();
+            if (currentRecord != null) {
+                currentRow++;
+                return true;
+            }
+            sortedRecords.close();
+            sortedRecords = null;
+            return false;
+        }
         if ((this.groupByColumns != null
                 || this.aggregateFunctions.size() > 0
-                || this.orderByColumns != null || this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE)
-                && currentRow < bufferedRecordEnvironments.size()) {
+                || this.orderByColumns != null || this.scrollable)
+                && currentRow < bufferedRecords.size()) {
             currentRow++;
-            recordEnvironment = bufferedRecordEnvironments.get(currentRow - 1);
-            updateRecordEnvironment(true);
+            currentRecord = bufferedRecords.get(currentRow - 1);
+            if (!this.scrollable) {
+                /*
+                 * Cursor never moves back to this row, so do not keep it in memory.
+                 */
+                bufferedRecords.release(currentRow - 1);
+            }
             return true;
         } else {
             boolean thereWasAnAnswer;
@@ -709,48 +1142,22 @@ public class CsvResultSet implements ResultSet {
                 thereWasAnAnswer = false;
             } else if (hitTail) {
                 thereWasAnAnswer = false;
+            } else if (this.streamingKeyOrder != null) {
+                thereWasAnAnswer = readNextGroup();
             } else {
-                thereWasAnAnswer = reader.next();
+                thereWasAnAnswer = readNextRecord();
             }
-
-            if (thereWasAnAnswer) {
-                recordEnvironment = reader.getEnvironment();
-            } else {
-                recordEnvironment = null;
+            if (!thereWasAnAnswer) {
+                currentRecord = null;
             }
 
-            // We have a where clause or DISTINCT keyword, honor it
-            if (whereClause != null || distinctValues != null) {
-                Map<String, Object> objectEnvironment = updateRecordEnvironment(thereWasAnAnswer);
-                while (thereWasAnAnswer) {
-                    if (whereClause == null || whereClause.isTrue(objectEnvironment)) {
-                        /*
-                         * Check HAVING clause if no aggregate functions in query and
-                         * it is being processed just like SELECT DISTINCT.
-                         * In this case HAVING is exactly the same as a WHERE clause.
-                         */
-                        if (this.distinctColumns == null || this.havingClause == null || this.havingClause.isTrue(objectEnvironment)) {
-                            if (distinctValues == null || addDistinctEnvironment(objectEnvironment)) {
-                                break;
-                            }
-                        }
-                    }
-                    thereWasAnAnswer = reader.next();
-                    if (thereWasAnAnswer) {
-                        recordEnvironment = reader.getEnvironment();
-                    } else {
-                        recordEnvironment = null;
-                    }
-                    objectEnvironment = updateRecordEnvironment(thereWasAnAnswer);
-                }
-            }
-            if (this.orderByColumns != null || this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+            if (this.orderByColumns != null || this.scrollable) {
                 if (thereWasAnAnswer) {
-                    bufferedRecordEnvironments.add(reader.getEnvironment());
+                    bufferedRecords.add(currentRecord);
                     currentRow++;
                 } else {
                     hitTail = true;
-                    currentRow = bufferedRecordEnvironments.size() + 1;
+                    currentRow = bufferedRecords.size() + 1;
                 }
             } else {
                 if (thereWasAnAnswer) {
@@ -763,76 +1170,505 @@ public class CsvResultSet implements ResultSet {
         }
     }
 
-    private Map<String, Object> updateRecordEnvironment(boolean thereWasAnAnswer) {
-        HashMap<String, Object> objectEnvironment = new HashMap<String, Object>();
-        if (!thereWasAnAnswer) {
-            recordEnvironment = null;
-            return objectEnvironment;
+    /**
+     * Read the next record from the data reader that matches the WHERE clause
+     * and, for SELECT DISTINCT, is not a duplicate.
+     *
+     * @return true if a record was read into <code>currentRecord</code>.
+     * @throws SQLException if reading fails.
+     */
+    private boolean readNextRecord() throws SQLException {
+        while (!allRecordsRead && reader.next()) {
+            currentRecord = readRecord();
+
+            // We have a where clause or DISTINCT keyword, honor it
+            if (whereClause == null || whereClause.isTrue(currentRecord)) {
+                /*
+                 * Check HAVING clause if no aggregate functions in query and
+                 * it is being processed just like SELECT DISTINCT.
+                 * In this case HAVING is exactly the same as a WHERE clause.
+                 */
+                if (this.distinctColumns == null || this.havingClause == null || this.havingClause.isTrue(currentRecord)) {
+                    if (distinctValues == null || addDistinctRecord(currentRecord)) {
+                        return true;
+                    }
+                }
+            }
         }
-        for (int i = 0; i < queryEnvironment.size(); i++) {
-            Object[] o = queryEnvironment.get(i);
-            String key = (String) o[0];
-            Object value = ((Expression) o[1]).eval(recordEnvironment);
-            objectEnvironment.put(key.toUpperCase(), value);
+        allRecordsRead = true;
+        if (distinctValues != null) {
+            /*
+             * Distinct records that did not fit in memory are returned last.
+             */
+            currentRecord = distinctValues.nextSpilled();
+            if (currentRecord != null) {
+                return true;
+            }
         }
-        for (int i = 0; i < usedColumns.size(); i++) {
-            String key = usedColumns.get(i);
-            key = key.toUpperCase();
-            if (!objectEnvironment.containsKey(key)) {
-                objectEnvironment.put(key, recordEnvironment.get(key));
+        return false;
+    }
+
+    /**
+     * Read all records, aggregating them into groups by the GROUP BY
+     * expressions, or into a single group if there is no GROUP BY.
+     *
+     * @return aggregator to read the groups from, in the order that they
+     * were first read.
+     * @throws SQLException if reading fails.
+     */
+    private GroupAggregator aggregateRecords() throws SQLException {
+        CsvConnection connection = (CsvConnection) statement.getConnection();
+        GroupAggregator aggregator = new GroupAggregator(this.groupAggregateFunctions,
+                connection.getParallelAggregationThreshold(), connection.getMemoryBudget(),
+                connection.getTempDirectory());
+        if (this.groupingSets != null) {
+            aggregator.setKeepAccumulators(true);
+        }
+        List<Object> noGroupByKeys = new ArrayList<Object>();
+        boolean valueTypesKnown = false;
+        boolean allAdded = false;
+        try {
+            while (readNextRecord()) {
+                if (!valueTypesKnown) {
+                    inferAggregateValueTypes(this.groupAggregateFunctions);
+                    valueTypesKnown = true;
+                }
+                List<Object> groupByKeys = noGroupByKeys;
+                if (this.groupByColumns != null) {
+                    groupByKeys = getGroupByKeys(currentRecord);
+                }
+                aggregator.add(groupByKeys, currentRecord);
+            }
+            allAdded = true;
+        } finally {
+            if (!allAdded) {
+                aggregator.close();
             }
         }
+        return aggregator;
+    }
 
+    /**
+     * Add a group to the result, if it matches the HAVING clause.
+     *
+     * @param groupRow first record of the group, holding its accumulators.
+     * @return true if the group was added.
+     * @throws SQLException if the row cannot be stored.
+     */
+    private boolean addGroupRow(Object[] groupRow) throws SQLException {
         /*
-         * Always include any group of rows so we have assembled so we can evaluate
-         * any aggregate functions.
+         * Aggregate results and selected expressions using them
+         * can only be evaluated once all rows are read.
          */
-        String key = "@GROUPROWS";
-        Object groupRows = recordEnvironment.get(key);
-        if (groupRows != null) {
-            objectEnvironment.put(key, groupRows);
+        for (AggregateFunction func : this.groupAggregateFunctions) {
+            func.finishGroup(groupRow);
         }
+        updateAliasValues(groupRow);
 
-        /*
-         * Always include the data type converter object so we can correctly
-         * convert data types when evaluating expressions such as MYDATE > '2012-06-31'.
-         */
-        key = "@STRINGCONVERTER";
-        Object stringConverter = recordEnvironment.get(key);
-        if (stringConverter != null) {
-            objectEnvironment.put(key, stringConverter);
+        if (this.havingClause == null || this.havingClause.isTrue(groupRow)) {
+            bufferedRecords.add(groupRow);
+            return true;
         }
-        return objectEnvironment;
+        return false;
     }
 
-    private boolean addDistinctEnvironment(Map<String, Object> objectEnvironment) {
-        boolean isDistinct;
+    /**
+     * Add the groups of each grouping set to the result. Records are only
+     * aggregated into groups of all GROUP BY expressions. The groups of
+     * each smaller grouping set are then made by merging the accumulators
+     * of these groups, with the columns of expressions not in the grouping
+     * set set to NULL. Groups of all GROUP BY expressions are added first,
+     * followed by the groups of each other grouping set in turn.
+     *
+     * @param aggregator aggregator holding groups of all GROUP BY expressions.
+     * @throws SQLException if reading groups or storing rows fails.
+     */
+    private void addGroupingSetRows(GroupAggregator aggregator) throws SQLException {
+        int fullSets = 0;
+        List<Map<List<Object>, Object[]>> setGroups = new ArrayList<Map<List<Object>, Object[]>>();
+        List<int[]> nullSlots = new ArrayList<int[]>();
+        for (int[] set : this.groupingSets) {
+            if (set.length == this.groupByColumns.size()) {
+                fullSets++;
+                setGroups.add(null);
+                nullSlots.add(null);
+            } else {
+                setGroups.add(new LinkedHashMap<List<Object>, Object[]>());
+                nullSlots.add(getGroupingSetNullSlots(set));
+            }
+        }
 
-        /*
-         * Create list of query values for this row, either for a simple
-         * GROUP BY statement, or for a SELECT DISTINCT.
-         */
-        ArrayList<Object> environment;
-        if (this.distinctColumns != null) {
-            environment = new ArrayList<Object>(distinctColumns.size());
-            for (int i = 0; i < distinctColumns.size(); i++) {
-                Object value = distinctColumns.get(i).eval(objectEnvironment);
-                environment.add(value);
+        Object[] groupRow;
+        while ((groupRow = aggregator.next()) != null) {
+            List<Object> keys = getGroupByKeys(groupRow);
+            for (int i = 0; i < this.groupingSets.size(); i++) {
+                Map<List<Object>, Object[]> groups = setGroups.get(i);
+                if (groups == null) {
+                    continue;
+                }
+                int[] set = this.groupingSets.get(i);
+                List<Object> setKeys = new ArrayList<Object>(set.length);
+                for (int j = 0; j < set.length; j++) {
+                    setKeys.add(keys.get(set[j]));
+                }
+                Object[] row = groups.get(setKeys);
+                if (row == null) {
+                    row = groupRow.clone();
+                    for (int slot : nullSlots.get(i)) {
+                        row[slot] = null;
+                    }
+                    for (AggregateFunction func : this.groupAggregateFunctions) {
+                        row[func.slot] = func.createAccumulator();
+                    }
+                    groups.put(setKeys, row);
+                }
+                for (AggregateFunction func : this.groupAggregateFunctions) {
+                    ((Accumulator) row[func.slot]).merge((Accumulator) groupRow[func.slot]);
+                }
             }
-        } else {
-            environment = new ArrayList<Object>(queryEnvironment.size());
-            for (int i = 0; i < queryEnvironment.size(); i++) {
-                Object[] o = queryEnvironment.get(i);
-                Object value = ((Expression) o[1]).eval(objectEnvironment);
-                environment.add(value);
+            if (fullSets > 0 && addGroupRow(groupRow)) {
+                for (int i = 1; i < fullSets; i++) {
+                    bufferedRecords.add(groupRow);
+                }
             }
         }
 
+        for (int i = 0; i < this.groupingSets.size(); i++) {
+            Map<List<Object>, Object[]> groups = setGroups.get(i);
+            if (groups == null) {
+                continue;
+            }
+            if (groups.isEmpty() && this.groupingSets.get(i).length == 0) {
+                /*
+                 * Grouping set with no expressions has a single group, even
+                 * if there are no records.
+                 */
+                Object[] row = new Object[recordSize];
+                for (AggregateFunction func : this.groupAggregateFunctions) {
+                    row[func.slot] = func.createAccumulator();
+                }
+                groups.put(new ArrayList<Object>(), row);
+            }
+            for (Object[] row : groups.values()) {
+                addGroupRow(row);
+            }
+            groups.clear();
+        }
+    }
+
+    /**
+     * @return slots of the columns used by GROUP BY expressions that are not
+     * in a grouping set, and not used by any expression in the set.
+     */
+    private int[] getGroupingSetNullSlots(int[] set) {
+        Set<String> setColumns = new HashSet<String>();
+        for (int i = 0; i < set.length; i++) {
+            setColumns.addAll(this.groupByColumns.get(set[i]).usedColumns());
+        }
+        Set<Integer> slots = new TreeSet<Integer>();
+        for (Expression expr : this.groupByColumns) {
+            for (String column : expr.usedColumns()) {
+                int slot = this.queryLayout.getSlot(column);
+                if (slot >= 0 && !setColumns.contains(column)) {
+                    slots.add(Integer.valueOf(slot));
+                }
+            }
+        }
+        int[] result = new int[slots.size()];
+        int i = 0;
+        for (Integer slot : slots) {
+            result[i++] = slot.intValue();
+        }
+        return result;
+    }
+
+    private List<Object> getGroupByKeys(Object[] record) {
+        List<Object> groupByKeys = new ArrayList<Object>(this.groupByColumns.size());
+        for (Expression expr : this.groupByColumns) {
+            groupByKeys.add(expr.eval(record));
+        }
+        return groupByKeys;
+    }
+
+    /**
+     * Check whether the table is sorted by the GROUP BY columns, so that the
+     * rows of each group follow each other and groups can be read one at a
+     * time. This is the case if the GROUP BY columns are the first columns
+     * that the table is sorted by.
+     *
+     * @param sortedBy columns that the table is sorted by, or null.
+     * @throws SQLException if the sorted columns are invalid.
+     */
+    private void setStreamingKeyOrder(String sortedBy) throws SQLException {
+        int[] directions = new int[this.groupByColumns.size()];
+        int[] order = getSortedKeyOrder(this.groupByColumns, sortedBy, directions);
+        if (order != null) {
+            this.streamingKeyOrder = order;
+            this.streamingKeyDirections = directions;
+        }
+    }
+
+    /**
+     * Find the positions of expressions in the order of the columns that the
+     * table is sorted by, if the expressions are the first columns that the
+     * table is sorted by, in any order. Records with the same values of the
+     * expressions then follow each other.
+     *
+     * @param keys       expressions.
+     * @param sortedBy   columns that the table is sorted by, or null if unknown.
+     * @param directions array to set to the direction of each sorted column.
+     * @return positions of the expressions, or null if the table is not
+     * sorted by the expressions.
+     * @throws SQLException if the columns that the table is sorted by are invalid.
+     */
+    private int[] getSortedKeyOrder(List<Expression> keys, String sortedBy, int[] directions) throws SQLException {
+        if (sortedBy == null) {
+            return null;
+        }
+        String[] sortColumns = sortedBy.split(",");
+        if (sortColumns.length < keys.size()) {
+            return null;
+        }
+        int[] order = new int[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            String[] words = sortColumns[i].trim().split("\\s+");
+            if (words.length > 2 || (words.length == 2
+                    && !words[1].equalsIgnoreCase("ASC") && !words[1].equalsIgnoreCase("DESC"))) {
+                throw new SQLException("Invalid " + CsvDriver.SORTED_BY + ": " + sortedBy);
+            }
+            order[i] = -1;
+            for (int j = 0; j < order.length; j++) {
+                Expression expr = keys.get(j);
+                if (expr instanceof ColumnName && ((ColumnName) expr).columnName.equalsIgnoreCase(words[0])) {
+                    order[i] = j;
+                }
+            }
+            if (order[i] < 0) {
+                return null;
+            }
+            directions[i] = (words.length == 2 && words[1].equalsIgnoreCase("DESC")) ? -1 : 1;
+        }
+        return order;
+    }
+
+    /**
+     * Read the next group of records from a table sorted by the GROUP BY
+     * columns. The group ends at the first record with different GROUP BY
+     * values, which is kept as the start of the following group.
+     *
+     * @return true if a group matching the HAVING clause was read into
+     * <code>currentRecord</code>.
+     * @throws SQLException if reading fails or the table is not sorted.
+     */
+    private boolean readNextGroup() throws SQLException {
+        if (!groupsStarted) {
+            groupsStarted = true;
+            if (readNextRecord()) {
+                inferAggregateValueTypes(this.groupAggregateFunctions);
+                nextGroupRecord = currentRecord;
+                nextGroupKeys = getGroupByKeys(currentRecord);
+            }
+        }
+        while (nextGroupRecord != null) {
+            Object[] groupRow = nextGroupRecord;
+            List<Object> groupKeys = nextGroupKeys;
+            nextGroupRecord = null;
+            nextGroupKeys = null;
+            for (AggregateFunction func : this.groupAggregateFunctions) {
+                Accumulator accumulator = func.createAccumulator();
+                func.accumulate(accumulator, groupRow);
+                groupRow[func.slot] = accumulator;
+            }
+            while (readNextRecord()) {
+                List<Object> keys = getGroupByKeys(currentRecord);
+                if (!keys.equals(groupKeys)) {
+                    checkSortOrder(streamingKeyOrder, streamingKeyDirections, groupKeys, keys);
+                    nextGroupRecord = currentRecord;
+                    nextGroupKeys = keys;
+                    break;
+                }
+                for (AggregateFunction func : this.groupAggregateFunctions) {
+                    func.accumulate((Accumulator) groupRow[func.slot], currentRecord);
+                }
+            }
+            for (AggregateFunction func : this.groupAggregateFunctions) {
+                func.finishGroup(groupRow);
+            }
+            updateAliasValues(groupRow);
+            if (this.havingClause == null || this.havingClause.isTrue(groupRow)) {
+                currentRecord = groupRow;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check that the GROUP BY or DISTINCT values of a record sort after those
+     * of the record before it with different values, as they must if the
+     * table is sorted.
+     *
+     * @throws SQLException if the values are out of order.
+     */
+    private void checkSortOrder(int[] order, int[] directions,
+                                List<Object> previousKeys, List<Object> keys) throws SQLException {
+        for (int i = 0; i < order.length; i++) {
+            Comparable<Object> previous = (Comparable<Object>) previousKeys.get(order[i]);
+            Comparable<Object> value = (Comparable<Object>) keys.get(order[i]);
+            int retval;
+            if (previous == null) {
+                retval = (value == null) ? 0 : -1;
+            } else if (value == null) {
+                retval = 1;
+            } else {
+                retval = previous.compareTo(value);
+            }
+            if (retval != 0) {
+                if (retval * directions[i] < 0) {
+                    return;
+                }
+                CsvConnection connection = (CsvConnection) statement.getConnection();
+                throw new SQLException("Table " + tableName + " is not sorted by "
+                        + connection.getSortedBy(tableName) + ": " + keys + " follows " + previousKeys);
+            }
+        }
+    }
+
+    /**
+     * Create a record containing a dummy value of the type of each column.
+     */
+    private Object[] createSampleRecord() throws SQLException {
+        String[] readerTypeNames = reader.getColumnTypes();
+        Object[] record = new Object[recordSize];
+        for (int i = 0; i < readerTypeNames.length; i++) {
+            record[i] = StringConverter.getLiteralForTypeName(readerTypeNames[i]);
+        }
+        return record;
+    }
+
+    /**
+     * Choose the accumulators of aggregate functions for the types of the
+     * values they aggregate. Called once the first record has been read,
+     * so that any inferred column types are known.
+     *
+     * @param funcs aggregate functions.
+     * @throws SQLException if the column types cannot be read.
+     */
+    private void inferAggregateValueTypes(List<AggregateFunction> funcs) throws SQLException {
+        Object[] sampleRecord = createSampleRecord();
+        for (AggregateFunction func : funcs) {
+            func.inferValueType(sampleRecord);
+        }
+    }
+
+    /**
+     * Create storage for rows that must be buffered, limited to the memory
+     * budget of the connection.
+     */
+    private RowStore createRowStore() throws SQLException {
+        CsvConnection connection = (CsvConnection) statement.getConnection();
+        if (connection.getMemoryBudget() <= 0) {
+            return new MemoryRowStore();
+        }
+        return new SpillingRowStore(connection.getMemoryBudget(), connection.getTempDirectory());
+    }
+
+    /**
+     * Read the current row from the reader into a new record, also
+     * setting the slots of any selected expressions used by name.
+     *
+     * @return record for the current row.
+     * @throws SQLException if the row cannot be read.
+     */
+    private Object[] readRecord() throws SQLException {
+        Object[] record = completeRecord(reader.getValues());
+        if (selectExpressions == null) {
+            compileExpressions();
+        }
+        return record;
+    }
+
+    /**
+     * Compile the WHERE clause, selected expressions and the expressions of
+     * aggregate functions for the column types of the table, known once the
+     * first record has been read. Selected expressions are simplified first.
+     */
+    private void compileExpressions() throws SQLException {
+        Object[] sampleRecord = createSampleRecord();
+        if (this.whereClause != null) {
+            this.whereClause = this.whereClause.compile(sampleRecord);
+        }
+        selectExpressions = new Expression[queryEnvironment.size()];
+        for (int i = 0; i < selectExpressions.length; i++) {
+            selectExpressions[i] = ((Expression) queryEnvironment.get(i)[1]).simplify().compile(sampleRecord);
+        }
+        for (AggregateFunction func : this.aggregateFunctions) {
+            func.compile(sampleRecord);
+        }
+        if (this.groupAggregateFunctions != null) {
+            for (AggregateFunction func : this.groupAggregateFunctions) {
+                func.compile(sampleRecord);
+            }
+        }
+    }
+
+    private Object[] completeRecord(Object[] record) {
+        if (record.length < recordSize) {
+            record = Arrays.copyOf(record, recordSize);
+        }
+        updateAliasValues(record);
+        return record;
+    }
+
+    private void updateAliasValues(Object[] record) {
+        for (int i = 0; i < aliasColumns.size(); i++) {
+            Object[] o = aliasColumns.get(i);
+            record[((Integer) o[0]).intValue()] = ((Expression) o[1]).eval(record);
+        }
+    }
+
+    private boolean addDistinctRecord(Object[] record) throws SQLException {
+        List<Expression> keys = getDistinctExpressions();
+        Object[] values = new Object[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = keys.get(i).eval(record);
+        }
+
+        if (this.distinctKeyOrder != null) {
+            /*
+             * Records with the same values follow each other, so only a
+             * record with different values to the record before is distinct.
+             */
+            List<Object> distinctKeys = Arrays.asList(values);
+            if (previousDistinctKeys != null) {
+                if (distinctKeys.equals(previousDistinctKeys)) {
+                    return false;
+                }
+                checkSortOrder(distinctKeyOrder, distinctKeyDirections, previousDistinctKeys, distinctKeys);
+            }
+            previousDistinctKeys = distinctKeys;
+            return true;
+        }
+
         /*
-         * Has this list of values been read before for this query?
+         * Have these values been read before for this query?
          */
-        isDistinct = distinctValues.add(environment);
-        return isDistinct;
+        return distinctValues.add(values, record);
+    }
+
+    /**
+     * @return expressions with values that must be distinct, either for a
+     * simple GROUP BY statement, or for a SELECT DISTINCT.
+     */
+    private List<Expression> getDistinctExpressions() {
+        if (this.distinctColumns != null) {
+            return this.distinctColumns;
+        }
+        List<Expression> expressions = new ArrayList<Expression>(queryEnvironment.size());
+        for (int i = 0; i < queryEnvironment.size(); i++) {
+            expressions.add((Expression) queryEnvironment.get(i)[1]);
+        }
+        return expressions;
     }
 
     /**
@@ -853,6 +1689,15 @@ public class CsvResultSet implements ResultSet {
     public void close() throws SQLException {
         isClosed = true;
         reader.close();
+        if (bufferedRecords != null) {
+            bufferedRecords.close();
+        }
+        if (sortedRecords != null) {
+            sortedRecords.close();
+        }
+        if (distinctValues != null) {
+            distinctValues.close();
+        }
     }
 
     /**
@@ -868,7 +1713,7 @@ public class CsvResultSet implements ResultSet {
      */
     public boolean wasNull() throws SQLException {
         if (lastIndexRead >= 0) {
-            return getString(lastIndexRead) == null;
+            return getCurrentValue(lastIndexRead) == null;
         } else {
             throw new SQLException("No previous getter method called");
         }
@@ -891,16 +1736,45 @@ public class CsvResultSet implements ResultSet {
     public String getString(int columnIndex) throws SQLException {
         // perform pre-accessor method processing
         preAccessor(columnIndex);
-        // use CsvReader.getColumn(String) to retrieve the column
+        Object value = getCurrentValue(columnIndex);
+        if (value == null) {
+            return null;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Get the value of a selected expression for the current record. All selected
+     * expressions are evaluated together the first time any column of a record is
+     * read, so reading a column several times does not evaluate it again.
+     *
+     * @param columnIndex the first column is 1, the second is 2, ...
+     * @return the column value, or null if there is no current record.
+     * @throws SQLException if the column index is invalid.
+     */
+    private Object getCurrentValue(int columnIndex) throws SQLException {
         if (columnIndex < 1 || columnIndex > this.queryEnvironment.size()) {
             throw new SQLException("Column not found: invalid index: " + columnIndex);
         }
-        Object[] o = queryEnvironment.get(columnIndex - 1);
-        try {
-            return ((Expression) o[1]).eval(recordEnvironment).toString();
-        } catch (NullPointerException e) {
+        if (currentRecord == null) {
             return null;
         }
+        if (currentValuesRecord != currentRecord) {
+            if (currentValues == null) {
+                currentValues = new Object[queryEnvironment.size()];
+            }
+            for (int i = 0; i < currentValues.length; i++) {
+                Expression expr;
+                if (selectExpressions != null) {
+                    expr = selectExpressions[i];
+                } else {
+                    expr = (Expression) queryEnvironment.get(i)[1];
+                }
+                currentValues[i] = expr.eval(currentRecord);
+            }
+            currentValuesRecord = currentRecord;
+        }
+        return currentValues[columnIndex - 1];
     }
 
     /**
@@ -1502,35 +2376,18 @@ public class CsvResultSet implements ResultSet {
      */
     public ResultSetMetaData getMetaData() throws SQLException {
         if (resultSetMetaData == null) {
-            String[] readerTypeNames = reader.getColumnTypes();
-            String[] readerColumnNames = reader.getColumnNames();
             int[] readerColumnSizes = reader.getColumnSizes();
-            String tableAlias = reader.getTableAlias();
             int columnCount = queryEnvironment.size();
             List<String> columnNames = new LinkedList();
             List<String> typeNames = new LinkedList();
 
-            /*
-             * Create a record containing dummy values.
-             */
-            Map<String, Object> env = new HashMap<String, Object>();
-            for (int i = 0; i < readerTypeNames.length; i++) {
-                Object literal = StringConverter.getLiteralForTypeName(readerTypeNames[i]);
-                String columnName = readerColumnNames[i].toUpperCase();
-                env.put(columnName, literal);
-                if (tableAlias != null) {
-                    env.put(tableAlias + "." + columnName, literal);
-                }
-            }
-            if (converter != null) {
-                env.put("@STRINGCONVERTER", converter);
-            }
+            Object[] record = createSampleRecord();
 
             for (int i = 0; i < columnCount; i++) {
                 Object[] o = queryEnvironment.get(i);
                 columnNames.add((String) o[0]);
                 Expression expr = ((Expression) o[1]);
-                Object result = expr.eval(env);
+                Object result = expr.eval(record);
                 if (result != null) {
                     typeNames.add(StringConverter.getTypeNameForLiteral(result));
                 } else {
@@ -1570,12 +2427,8 @@ public class CsvResultSet implements ResultSet {
      * @throws SQLException if a database access error occurs
      */
     public Object getObject(int columnIndex) throws SQLException {
-        Object[] o = queryEnvironment.get(columnIndex - 1);
-        try {
-            return ((Expression) o[1]).eval(recordEnvironment);
-        } catch (NullPointerException e) {
-            return null;
-        }
+        preAccessor(columnIndex);
+        return getCurrentValue(columnIndex);
     }
 
     /**
@@ -1700,7 +2553,7 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             return currentRow == 0;
         } else {
             throw new UnsupportedOperationException(
@@ -1721,8 +2574,8 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
-            return currentRow == bufferedRecordEnvironments.size() + 1;
+        if (this.scrollable) {
+            return currentRow == bufferedRecords.size() + 1;
         } else {
             throw new UnsupportedOperationException(
                     "ResultSet.isAfterLast() unsupported");
@@ -1741,7 +2594,7 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             return currentRow == 1;
         } else {
             throw new UnsupportedOperationException(
@@ -1764,12 +2617,12 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             if (!hitTail && currentRow != 0) {
                 next();
                 previous();
             }
-            return (currentRow == bufferedRecordEnvironments.size());
+            return (currentRow == bufferedRecords.size());
         } else {
             throw new UnsupportedOperationException(
                     "ResultSet.isLast() unsupported");
@@ -1788,7 +2641,7 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             first();
             previous();
         } else {
@@ -1809,7 +2662,7 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             while (next()) {
                 ;
             }
@@ -1832,11 +2685,9 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             currentRow = 0;
-            boolean thereWasAnAnswer = next();
-            updateRecordEnvironment(thereWasAnAnswer);
-            return thereWasAnAnswer;
+            return next();
         } else {
             throw new UnsupportedOperationException(
                     "ResultSet.first() unsupported");
@@ -1856,10 +2707,10 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             afterLast();
             previous();
-            return (this.bufferedRecordEnvironments.size() != 0);
+            return (this.bufferedRecords.size() != 0);
         } else {
             throw new UnsupportedOperationException("ResultSet.last() unsupported");
         }
@@ -1873,7 +2724,7 @@ public class CsvResultSet implements ResultSet {
      * @throws SQLException if a database access error occurs
      */
     public int getRow() throws SQLException {
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             return currentRow;
         } else {
             throw new UnsupportedOperationException(
@@ -1919,29 +2770,31 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             boolean found;
             if (row < 0) {
                 last();
                 row = currentRow + row + 1;
             } else {
                 // this is a no-op if we have already buffered enough lines.
-                while ((bufferedRecordEnvironments.size() < row) && next()) {
+                while ((bufferedRecords.size() < row) && next()) {
                     ;
                 }
             }
             if (row <= 0) {
                 found = false;
                 currentRow = 0;
-            } else if (row > bufferedRecordEnvironments.size()) {
+            } else if (row > bufferedRecords.size()) {
                 found = false;
-                currentRow = bufferedRecordEnvironments.size() + 1;
+                currentRow = bufferedRecords.size() + 1;
             } else {
                 found = true;
                 currentRow = row;
-                recordEnvironment = bufferedRecordEnvironments.get(currentRow - 1);
+                currentRecord = bufferedRecords.get(currentRow - 1);
+            }
+            if (!found) {
+                currentRecord = null;
             }
-            updateRecordEnvironment(found);
             return found;
         } else {
             throw new UnsupportedOperationException(
@@ -1974,12 +2827,12 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             if (currentRow + rows >= 0) {
                 return absolute(currentRow + rows);
             }
             currentRow = 0;
-            updateRecordEnvironment(false);
+            currentRecord = null;
             return false;
         } else {
             throw new UnsupportedOperationException(
@@ -2000,16 +2853,14 @@ public class CsvResultSet implements ResultSet {
 
         checkOpen();
 
-        if (this.isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE) {
+        if (this.scrollable) {
             if (currentRow > 1) {
                 currentRow--;
-                recordEnvironment = bufferedRecordEnvironments.get(currentRow - 1);
-                updateRecordEnvironment(true);
+                currentRecord = bufferedRecords.get(currentRow - 1);
                 return true;
             } else {
                 currentRow = 0;
-                recordEnvironment = null;
-                updateRecordEnvironment(false);
+                currentRecord = null;
                 return false;
             }
         } else {
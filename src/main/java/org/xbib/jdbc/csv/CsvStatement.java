@@ -21,6 +21,7 @@ import org.xbib.jdbc.csv.support.CsvReader;
 import org.xbib.jdbc.csv.support.DataReader;
 import org.xbib.jdbc.csv.support.FileSetInputStream;
 import org.xbib.jdbc.csv.support.ListDataReader;
+import org.xbib.jdbc.csv.support.PositionedLineReader;
 import org.xbib.jdbc.csv.support.TableReader;
 
 import java.io.BufferedReader;
@@ -29,6 +30,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
@@ -55,7 +57,7 @@ public class CsvStatement implements Statement {
     protected ResultSet lastResultSet = null;
     private int maxRows = 0;
     private int fetchSize = 1;
-    protected int isScrollable = ResultSet.TYPE_SCROLL_INSENSITIVE;
+    protected int isScrollable = ResultSet.TYPE_FORWARD_ONLY;
 
     /**
      * Constructor for the CsvStatement object
@@ -67,7 +69,7 @@ public class CsvStatement implements Statement {
                 + connection);
         DriverManager
                 .println("CsvJdbc - CsvStatement() - Asked for "
-                        + (isScrollable == ResultSet.TYPE_SCROLL_SENSITIVE ? "Scrollable"
+                        + (isScrollable != ResultSet.TYPE_FORWARD_ONLY ? "Scrollable"
                         : "Not Scrollable"));
         this.connection = connection;
         this.isScrollable = isScrollable;
@@ -357,24 +359,39 @@ public class CsvStatement implements Statement {
             try {
                 BufferedReader input;
                 if (tableReader == null) {
-                    InputStream in;
                     if (connection.isIndexedFiles()) {
                         String fileNamePattern = parser.getTableName()
                                 + connection.getFileNamePattern()
                                 + connection.getExtension();
                         String[] nameParts = connection.getNameParts();
                         String dirName = connection.getPath();
-                        in = new FileSetInputStream(dirName, fileNamePattern,
+                        InputStream in = new FileSetInputStream(dirName, fileNamePattern,
                                 nameParts, connection.getSeparator(), connection.isFileTailPrepend(),
                                 connection.isSuppressHeaders(), connection.getSkipLeadingDataLines() + connection.getTransposedLines());
+                        if (connection.getCharset() != null) {
+                            input = new BufferedReader(new InputStreamReader(in, connection
+                                    .getCharset()));
+                        } else {
+                            input = new BufferedReader(new InputStreamReader(in));
+                        }
                     } else {
-                        in = new FileInputStream(fileName);
-                    }
-                    if (connection.getCharset() != null) {
-                        input = new BufferedReader(new InputStreamReader(in, connection
-                                .getCharset()));
-                    } else {
-                        input = new BufferedReader(new InputStreamReader(in));
+                        Charset charset;
+                        if (connection.getCharset() != null) {
+                            charset = Charset.forName(connection.getCharset());
+                        } else {
+                            charset = Charset.defaultCharset();
+                        }
+                        if (this.isScrollable != ResultSet.TYPE_FORWARD_ONLY
+                                && PositionedLineReader.isSeekable(charset)) {
+                            /*
+                             * Keep track of the position of each line, so that rows of
+                             * a scrollable result set can be read again from the file.
+                             */
+                            input = new PositionedLineReader(new File(fileName), charset);
+                        } else {
+                            input = new BufferedReader(new InputStreamReader(
+                                    new FileInputStream(fileName), charset));
+                        }
                     }
                 } else {
                         /*
@@ -416,6 +433,7 @@ public class CsvStatement implements Statement {
                     parser.getColumns(), parser.isDistinct(),
                     this.isScrollable, parser.getWhereClause(),
                     parser.getGroupByColumns(),
+                    parser.getGroupingSets(),
                     parser.getHavingClause(),
                     parser.getOrderByColumns(),
                     parser.getLimit(),
@@ -0,0 +1,320 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.xbib.jdbc.csv.support.HashPartitionSpill;
+import org.xbib.jdbc.csv.support.RowSerializer;
+import org.xbib.jdbc.csv.support.TempFiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Set of the distinct values of records for SELECT DISTINCT. The values of
+ * each record are serialized and kept as bytes in a single array, found by
+ * an open addressing hash table of their offsets, instead of as a list of
+ * objects for each record.
+ * When the set uses up the memory budget, records with values not already
+ * in memory are written to one of several temporary files chosen by the hash
+ * of their values. Values already in memory are still found, so that records
+ * with new values in memory can be returned as soon as they are read. Once
+ * all records have been added, the records of each file are made distinct
+ * in turn in the same way, and returned in the order they were read.
+ */
+class DistinctSet {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Largest number of bytes of values to keep in memory, even if there is
+     * no memory budget, so that offsets fit in an int.
+     */
+    private static final int MAX_KEY_BYTES = 1 << 30;
+
+    private long memoryBudget;
+    private File tempDirectory;
+    private int level;
+    private long rowCount = 0;
+    /*
+     * Hash, offset plus one and length of the values in each slot of the
+     * table, with an offset of zero for an empty slot.
+     */
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private byte[] keyBytes = new byte[4096];
+    private int keyBytesUsed = 0;
+    private KeyBuffer keyBuffer = new KeyBuffer();
+    private DataOutputStream keyOut = new DataOutputStream(keyBuffer);
+    private HashPartitionSpill spill = null;
+    private boolean spillProcessed = false;
+
+    /**
+     * Create a set.
+     *
+     * @param memoryBudget  approximate number of bytes of values to keep in
+     *                      memory, or 0 to keep all values in memory.
+     * @param tempDirectory directory for temporary files, or null for the
+     *                      default temporary directory.
+     */
+    public DistinctSet(long memoryBudget, File tempDirectory) {
+        this(memoryBudget, tempDirectory, 0);
+    }
+
+    private DistinctSet(long memoryBudget, File tempDirectory, int level) {
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+        this.level = level;
+    }
+
+    /**
+     * Add a record, unless a record with the same values has already been added.
+     *
+     * @param key    values of the record that must be distinct.
+     * @param record record values.
+     * @return true if the record has values not added before and should be
+     * returned now, false if it is a duplicate or was written to a temporary
+     * file to be returned by <code>nextSpilled</code>.
+     * @throws SQLException if a value cannot be serialized or writing a
+     *                      temporary file fails.
+     */
+    public boolean add(Object[] key, Object[] record) throws SQLException {
+        keyBuffer.reset();
+        try {
+            RowSerializer.writeRow(keyOut, key);
+        } catch (IOException e) {
+            throw new SQLException("Error writing DISTINCT values. Message was: " + e);
+        }
+        byte[] bytes = keyBuffer.getBuffer();
+        int length = keyBuffer.size();
+        return add(bytes, length, hash(bytes, length), record, rowCount++);
+    }
+
+    private boolean add(byte[] bytes, int length, long hash, Object[] record, long rowNumber) throws SQLException {
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (offsets[slot] != 0) {
+            if (hashes[slot] == hash && lengths[slot] == length
+                    && equalBytes(bytes, length, offsets[slot] - 1)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (level < HashPartitionSpill.MAX_LEVEL && isOverBudget(length) && size > 0) {
+            spill(bytes, length, hash, record, rowNumber);
+            return false;
+        }
+        if (keyBytesUsed + length > keyBytes.length) {
+            int capacity = keyBytes.length * 2;
+            while (capacity < keyBytesUsed + length) {
+                capacity *= 2;
+            }
+            byte[] newKeyBytes = new byte[capacity];
+            System.arraycopy(keyBytes, 0, newKeyBytes, 0, keyBytesUsed);
+            keyBytes = newKeyBytes;
+        }
+        System.arraycopy(bytes, 0, keyBytes, keyBytesUsed, length);
+        hashes[slot] = hash;
+        offsets[slot] = keyBytesUsed + 1;
+        lengths[slot] = length;
+        keyBytesUsed += length;
+        size++;
+        if (size * 4 > hashes.length * 3) {
+            resize();
+        }
+        return true;
+    }
+
+    private boolean isOverBudget(int length) {
+        if ((long) keyBytesUsed + length > MAX_KEY_BYTES) {
+            return true;
+        }
+        return memoryBudget > 0 && keyBytes.length + 16L * hashes.length > memoryBudget;
+    }
+
+    private boolean equalBytes(byte[] bytes, int length, int offset) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != keyBytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        hashes = new long[oldHashes.length * 2];
+        offsets = new int[hashes.length];
+        lengths = new int[hashes.length];
+        int mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldOffsets[i] != 0) {
+                int slot = (int) oldHashes[i] & mask;
+                while (offsets[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                offsets[slot] = oldOffsets[i];
+                lengths[slot] = oldLengths[i];
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of serialized values, with the bits mixed so
+     * that both the low bits for the table and the high bits for the
+     * temporary files are evenly spread.
+     */
+    private static long hash(byte[] bytes, int length) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Get the next record with distinct values that was written to a
+     * temporary file, once all records have been added.
+     *
+     * @return record values, or null if there are no more records.
+     * @throws SQLException if reading or writing a temporary file fails.
+     */
+    public Object[] nextSpilled() throws SQLException {
+        if (spill == null) {
+            return null;
+        }
+        if (!spillProcessed) {
+            /*
+             * No more values are added to memory, so free it for the
+             * values of the temporary files.
+             */
+            hashes = null;
+            offsets = null;
+            lengths = null;
+            keyBytes = null;
+            spillProcessed = true;
+            spill.process(new SpillHandler());
+        }
+        return spill.nextResult() ? spill.getResultRow() : null;
+    }
+
+    /**
+     * @return number of the row last returned by <code>nextSpilled</code>.
+     */
+    long getSpilledRowNumber() {
+        return spill.getResultRowNumber();
+    }
+
+    /**
+     * Free the memory of the values in memory and delete all temporary files.
+     */
+    public void close() {
+        hashes = null;
+        offsets = null;
+        lengths = null;
+        keyBytes = null;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /**
+     * Write a record with values that are not in memory to the temporary
+     * file for the hash of its values.
+     */
+    private void spill(byte[] bytes, int length, long hash, Object[] record, long rowNumber) throws SQLException {
+        int index = (int) (hash >>> (60 - 4 * level)) & (HashPartitionSpill.PARTITIONS - 1);
+        if (spill == null) {
+            spill = new HashPartitionSpill(tempDirectory);
+        }
+        try {
+            DataOutputStream out = spill.getOutput(index);
+            out.writeLong(rowNumber);
+            out.writeLong(hash);
+            out.writeInt(length);
+            out.write(bytes, 0, length);
+            RowSerializer.writeRow(out, record);
+        } catch (IOException e) {
+            throw TempFiles.writeError(e);
+        }
+    }
+
+    /**
+     * Makes the records of a temporary file distinct in a set of their own,
+     * writing the distinct records in the order they were read. Records with
+     * values kept in memory are all read before any record with values
+     * written to a further temporary file, so the results are in the order
+     * the records were read.
+     */
+    private class SpillHandler implements HashPartitionSpill.Handler {
+
+        private DistinctSet set;
+
+        public void read(DataInputStream in, long count, HashPartitionSpill.ResultWriter results)
+                throws SQLException, IOException {
+            set = new DistinctSet(memoryBudget, tempDirectory, level + 1);
+            byte[] bytes = new byte[256];
+            for (long n = count; n > 0; n--) {
+                long rowNumber = in.readLong();
+                long hash = in.readLong();
+                int length = in.readInt();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                in.readFully(bytes, 0, length);
+                Object[] record = RowSerializer.readRow(in);
+                if (set.add(bytes, length, hash, record, rowNumber)) {
+                    results.write(rowNumber, record);
+                }
+            }
+        }
+
+        public void finish(HashPartitionSpill.ResultWriter results) throws SQLException, IOException {
+            Object[] record;
+            while ((record = set.nextSpilled()) != null) {
+                results.write(set.getSpilledRowNumber(), record);
+            }
+        }
+
+        public void close() {
+            if (set != null) {
+                set.close();
+                set = null;
+            }
+        }
+    }
+
+    /**
+     * Buffer for serializing values, giving access to its bytes without a copy.
+     */
+    private static class KeyBuffer extends ByteArrayOutputStream {
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
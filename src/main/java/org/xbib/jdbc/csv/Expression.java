@@ -18,13 +18,93 @@ package org.xbib.jdbc.csv;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 public abstract class Expression {
-    public Object eval(Map<String, Object> env) {
+    public Object eval(Object[] row) {
         return null;
     }
 
+    /**
+     * Bind column names and place-holders in this expression to the slots
+     * of the records it will be evaluated against.
+     *
+     * @param layout layout of the records.
+     */
+    public void resolve(RowLayout layout) {
+    }
+
+    /**
+     * Simplify this expression, once bound to slots, folding the parts of it
+     * that have the same value for every record into constants.
+     *
+     * @return simplified expression, or this expression if it cannot be
+     * simplified.
+     */
+    public Expression simplify() {
+        return this;
+    }
+
+    /**
+     * @return true if this expression has the same value for every record.
+     */
+    public boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Evaluate an expression that has the same value for every record into
+     * a constant.
+     *
+     * @param expression expression with only constant operands.
+     * @return constant, or the expression itself if it cannot be evaluated
+     * before the records are read.
+     */
+    static Expression fold(Expression expression) {
+        Object value;
+        try {
+            value = expression.eval(null);
+        } catch (RuntimeException e) {
+            return expression;
+        }
+        if (value == null) {
+            return new NullConstant();
+        } else if (value instanceof Number) {
+            return new NumericConstant((Number) value);
+        } else if (value instanceof String) {
+            return new StringConstant((String) value);
+        }
+        return new FoldedConstant(value, expression);
+    }
+
+    /**
+     * Compile this expression, once bound to slots, into an expression that
+     * evaluates to the same values with less work, specialized for the types
+     * of the values in the records that it will be evaluated against.
+     *
+     * @param sampleRecord record containing a value of the type of each column.
+     * @return expression to evaluate instead, or this expression if it
+     * cannot be specialized.
+     */
+    public Expression compile(Object[] sampleRecord) {
+        return this;
+    }
+
+    /**
+     * Evaluate an expression against a sample record, to find the type of
+     * its values.
+     *
+     * @param expression   expression to evaluate.
+     * @param sampleRecord record containing a value of the type of each column.
+     * @return value of expression, or null if it cannot be evaluated.
+     */
+    static Object evalSample(Expression expression, Object[] sampleRecord) {
+        try {
+            return expression.eval(sampleRecord);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
     public List<String> usedColumns() {
         return null;
     }
@@ -33,7 +113,7 @@ public abstract class Expression {
         return new LinkedList<AggregateFunction>();
     }
 
-    public boolean isTrue(Map<String, Object> env) {
+    public boolean isTrue(Object[] row) {
         return false;
     }
 }
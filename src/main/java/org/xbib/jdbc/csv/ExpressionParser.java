@@ -2,18 +2,23 @@
 package org.xbib.jdbc.csv;
 
 import org.xbib.jdbc.csv.support.SimpleCharStream;
+import org.xbib.jdbc.csv.support.SizeEstimated;
 import org.xbib.jdbc.csv.support.StringConverter;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.regex.Pattern;
 
 class NumericConstant extends Expression {
 
@@ -23,10 +28,14 @@ class NumericConstant extends Expression {
         value = d;
     }
 
-    public Object eval(Map<String, Object> env) {
+    public Object eval(Object[] row) {
         return value;
     }
 
+    public boolean isConstant() {
+        return true;
+    }
+
     public String toString() {
         return value.toString();
     }
@@ -44,10 +53,14 @@ class StringConstant extends Expression {
         value = s;
     }
 
-    public Object eval(Map<String, Object> env) {
+    public Object eval(Object[] row) {
         return value;
     }
 
+    public boolean isConstant() {
+        return true;
+    }
+
     public String toString() {
         return "'" + value + "'";
     }
@@ -59,10 +72,14 @@ class StringConstant extends Expression {
 
 class NullConstant extends Expression {
 
-    public Object eval(Map<String, Object> env) {
+    public Object eval(Object[] row) {
         return null;
     }
 
+    public boolean isConstant() {
+        return true;
+    }
+
     public String toString() {
         return "null";
     }
@@ -72,6 +89,37 @@ class NullConstant extends Expression {
     }
 }
 
+/**
+ * Value of an expression that is the same for every record, evaluated
+ * before the records are read.
+ */
+class FoldedConstant extends Expression {
+
+    Object value;
+    Expression expression;
+
+    public FoldedConstant(Object value, Expression expression) {
+        this.value = value;
+        this.expression = expression;
+    }
+
+    public Object eval(Object[] row) {
+        return value;
+    }
+
+    public boolean isConstant() {
+        return true;
+    }
+
+    public String toString() {
+        return expression.toString();
+    }
+
+    public List<String> usedColumns() {
+        return new LinkedList<String>();
+    }
+}
+
 class CurrentDateConstant extends Expression {
 
     ExpressionParser parent;
@@ -80,10 +128,14 @@ class CurrentDateConstant extends Expression {
         this.parent = parent;
     }
 
-    public Object eval(Map<String, Object> env) {
+    public Object eval(Object[] row) {
         return parent.getCurrentDate();
     }
 
+    public boolean isConstant() {
+        return true;
+    }
+
     public String toString() {
         return "CURRENT_DATE";
     }
@@ -97,14 +149,26 @@ class Placeholder extends Expression {
 
     public static int nextIndex = 1;
     private int index;
+    private Object value;
 
     public Placeholder() {
         index = nextIndex;
         nextIndex++;
     }
 
-    public Object eval(Map<String, Object> env) {
-        return env.get("?" + index);
+    public Object eval(Object[] row) {
+        return value;
+    }
+
+    public void resolve(RowLayout layout) {
+        value = layout.getPlaceholderValue(index);
+    }
+
+    /**
+     * A place-holder has the same value for every record, once resolved.
+     */
+    public boolean isConstant() {
+        return true;
     }
 
     public String toString() {
@@ -119,13 +183,18 @@ class Placeholder extends Expression {
 class ColumnName extends Expression {
 
     String columnName;
+    int slot = -1;
 
     public ColumnName(String columnName) {
         this.columnName = columnName.toUpperCase();
     }
 
-    public Object eval(Map<String, Object> env) {
-        return env.get(columnName);
+    public Object eval(Object[] row) {
+        return slot >= 0 ? row[slot] : null;
+    }
+
+    public void resolve(RowLayout layout) {
+        slot = layout.getSlot(columnName);
     }
 
     public String toString() {
@@ -147,14 +216,31 @@ class SQLLowerFunction extends Expression {
         this.expression = expression;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object retval = expression.eval(env);
+    public Object eval(Object[] row) {
+        Object retval = expression.eval(row);
         if (retval != null) {
             retval = retval.toString().toLowerCase();
         }
         return retval;
     }
 
+    public void resolve(RowLayout layout) {
+        expression.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = expression.simplify();
+        if (simplified.isConstant()) {
+            return fold(new SQLLowerFunction(simplified));
+        }
+        return (simplified == expression) ? this : new SQLLowerFunction(simplified);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = expression.compile(sampleRecord);
+        return (compiled == expression) ? this : new SQLLowerFunction(compiled);
+    }
+
     public String toString() {
         return "LOWER(" + expression + ")";
     }
@@ -180,8 +266,8 @@ class SQLRoundFunction extends Expression {
         this.expression = expression;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object retval = expression.eval(env);
+    public Object eval(Object[] row) {
+        Object retval = expression.eval(row);
         if (retval != null) {
             if (!(retval instanceof Number)) {
                 try {
@@ -206,6 +292,23 @@ class SQLRoundFunction extends Expression {
         return retval;
     }
 
+    public void resolve(RowLayout layout) {
+        expression.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = expression.simplify();
+        if (simplified.isConstant()) {
+            return fold(new SQLRoundFunction(simplified));
+        }
+        return (simplified == expression) ? this : new SQLRoundFunction(simplified);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = expression.compile(sampleRecord);
+        return (compiled == expression) ? this : new SQLRoundFunction(compiled);
+    }
+
     public String toString() {
         return "ROUND(" + expression + ")";
     }
@@ -231,14 +334,31 @@ class SQLUpperFunction extends Expression {
         this.expression = expression;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object retval = expression.eval(env);
+    public Object eval(Object[] row) {
+        Object retval = expression.eval(row);
         if (retval != null) {
             retval = retval.toString().toUpperCase();
         }
         return retval;
     }
 
+    public void resolve(RowLayout layout) {
+        expression.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = expression.simplify();
+        if (simplified.isConstant()) {
+            return fold(new SQLUpperFunction(simplified));
+        }
+        return (simplified == expression) ? this : new SQLUpperFunction(simplified);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = expression.compile(sampleRecord);
+        return (compiled == expression) ? this : new SQLUpperFunction(compiled);
+    }
+
     public String toString() {
         return "UPPER(" + expression + ")";
     }
@@ -256,37 +376,102 @@ class SQLUpperFunction extends Expression {
     }
 }
 
-abstract class AggregateFunction extends Expression {
+/**
+ * Running result of an aggregate function over the rows added so far.
+ * Accumulators are kept in grouped records, so they may be written to
+ * temporary files together with the records. Accumulators for different
+ * parts of the same rows can be merged, so that the parts can be
+ * aggregated in different threads.
+ */
+interface Accumulator extends Serializable, SizeEstimated {
+
+    void add(Object value);
+
+    /**
+     * Add the rows of another accumulator of the same type. Where one of
+     * several equal values is kept, the value of this accumulator is kept.
+     *
+     * @param other accumulator to merge into this one.
+     */
+    void merge(Accumulator other);
 
-    public abstract List<String> aggregateColumns();
+    /**
+     * Estimate the memory used by the accumulator. The estimate may grow as
+     * values are added, for accumulators that keep values or sketches.
+     *
+     * @return approximate size in bytes.
+     */
+    long estimateSize();
 
-    public abstract void processRow(Map<String, Object> env);
+    Object getResult();
 }
 
-class SQLCountFunction extends AggregateFunction {
+abstract class AggregateFunction extends Expression {
 
-    Expression expression;
-    int counter = 0;
+    static final int VALUE_OTHER = 0;
+    static final int VALUE_INTEGRAL = 1;
+    static final int VALUE_FLOATING = 2;
 
-    public SQLCountFunction(Expression expression) {
+    /**
+     * Result kept in a grouped record in place of a null aggregate result,
+     * as an empty slot means that the record does not belong to a group.
+     */
+    static final NullResult NULL_RESULT = new NullResult();
+
+    Expression expression;
+    /**
+     * Expression compiled for the column types of the table, evaluated for each row.
+     */
+    Expression compiledExpression;
+    int slot = -1;
+    int valueType = VALUE_OTHER;
+    Accumulator accumulator = null;
+    boolean finished = false;
+    Object result = null;
+
+    public AggregateFunction(Expression expression) {
         this.expression = expression;
+        this.compiledExpression = expression;
+    }
+
+    /**
+     * Set the slot of each grouped record holding the accumulator for its group.
+     *
+     * @param slot index of slot in each grouped record.
+     */
+    public void setSlot(int slot) {
+        this.slot = slot;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object o = env.get("@GROUPROWS");
+    public Object eval(Object[] row) {
+        Object o = slot >= 0 ? row[slot] : null;
         if (o != null) {
-            /*
-             * The count is the number of rows grouped together
-             * by the GROUP BY clause.
-             */
-            List groupRows = (List) o;
-            return Integer.valueOf(groupRows.size());
+            if (o instanceof Accumulator) {
+                return ((Accumulator) o).getResult();
+            }
+            if (o instanceof NullResult) {
+                return null;
+            }
+            return o;
         }
-        return Integer.valueOf(counter);
+        if (finished) {
+            return result;
+        }
+        return getAccumulator().getResult();
     }
 
-    public String toString() {
-        return "COUNT(" + expression + ")";
+    public void resolve(RowLayout layout) {
+        expression.resolve(layout);
+        compiledExpression = expression;
+    }
+
+    /**
+     * Compile the expression of this function, which is evaluated for every
+     * row, keeping this function itself as it holds the result.
+     */
+    public Expression compile(Object[] sampleRecord) {
+        compiledExpression = expression.simplify().compile(sampleRecord);
+        return this;
     }
 
     public List<String> usedColumns() {
@@ -295,9 +480,7 @@ class SQLCountFunction extends AggregateFunction {
 
     public List<String> aggregateColumns() {
         List<String> result = new LinkedList<String>();
-        if (!(expression instanceof AsteriskExpression)) {
-            result.addAll(expression.usedColumns());
-        }
+        result.addAll(expression.usedColumns());
         return result;
     }
 
@@ -307,262 +490,1143 @@ class SQLCountFunction extends AggregateFunction {
         return result;
     }
 
-    public void processRow(Map<String, Object> env) {
-        if (expression instanceof AsteriskExpression) {
-            counter++;
+    /**
+     * Choose the accumulators created for the type of this function's
+     * expression, found by evaluating it for a record with a sample value
+     * of each column's declared or inferred type.
+     *
+     * @param sampleRecord record with a value of the right type in each column.
+     */
+    public void inferValueType(Object[] sampleRecord) {
+        Object value;
+        try {
+            value = expression.eval(sampleRecord);
+        } catch (RuntimeException e) {
+            value = null;
+        }
+        if (isIntegral(value)) {
+            valueType = VALUE_INTEGRAL;
+        } else if (isFloating(value)) {
+            valueType = VALUE_FLOATING;
         } else {
-            /*
-             * Only count non-null values.
-             */
-            Object o = expression.eval(env);
-            if (o != null) {
-                counter++;
-            }
+            valueType = VALUE_OTHER;
         }
+        accumulator = null;
     }
-}
-
-class SQLMaxFunction extends AggregateFunction {
 
-    Expression expression;
-    Object max = null;
+    static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte;
+    }
 
-    public SQLMaxFunction(Expression expression) {
-        this.expression = expression;
+    static boolean isFloating(Object value) {
+        return value instanceof Double || value instanceof Float;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object o = env.get("@GROUPROWS");
-        if (o != null) {
-            /*
-             * Find the maximum from the rows grouped together
-             * by the GROUP BY clause.
-             */
-            List groupRows = (List) o;
-            Object maxInGroup = null;
-            for (int i = 0; i < groupRows.size(); i++) {
-                o = expression.eval((Map) groupRows.get(i));
-                if (o != null) {
-                    if (maxInGroup == null || ((Comparable) maxInGroup).compareTo(o) < 0) {
-                        maxInGroup = o;
-                    }
-                }
-            }
-            return maxInGroup;
+    /**
+     * @return value as a double, or NaN if it is not a number.
+     */
+    static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
         }
-        return max;
     }
 
-    public String toString() {
-        return "MAX(" + expression + ")";
+    /**
+     * @return new accumulator for the rows of one group.
+     */
+    public abstract Accumulator createAccumulator();
+
+    /**
+     * @param row record to evaluate.
+     * @return value of this function's expression to add to an accumulator.
+     */
+    public Object getValue(Object[] row) {
+        return compiledExpression.eval(row);
     }
 
-    public List<String> usedColumns() {
-        return new LinkedList<String>();
+    /**
+     * Add the value of this function's expression for a row to an accumulator.
+     *
+     * @param accumulator accumulator of the group the row belongs to.
+     * @param row         record to evaluate.
+     */
+    public void accumulate(Accumulator accumulator, Object[] row) {
+        accumulator.add(getValue(row));
     }
 
-    public List<String> aggregateColumns() {
-        List<String> result = new LinkedList<String>();
-        result.addAll(expression.usedColumns());
-        return result;
+    /**
+     * Replace the accumulator held by a grouped record with its result, once
+     * all rows of the group have been added, so that the result is computed
+     * only once however often it is evaluated.
+     *
+     * @param row grouped record.
+     */
+    public void finishGroup(Object[] row) {
+        if (row[slot] instanceof Accumulator) {
+            Object o = ((Accumulator) row[slot]).getResult();
+            row[slot] = (o != null) ? o : NULL_RESULT;
+        }
     }
 
-    public List<AggregateFunction> aggregateFunctions() {
-        List<AggregateFunction> result = new LinkedList<AggregateFunction>();
-        result.add(this);
-        return result;
+    /**
+     * Keep the single result of a query without GROUP BY, so that it is
+     * also known when evaluating against records that hold no result.
+     *
+     * @param accumulator accumulator of all rows.
+     */
+    public void finish(Accumulator accumulator) {
+        result = accumulator.getResult();
+        finished = true;
     }
 
-    public void processRow(Map<String, Object> env) {
-        /*
-         * Only consider non-null values.
-         */
-        Object o = expression.eval(env);
-        if (o != null) {
-            if (max == null || ((Comparable) max).compareTo(o) < 0) {
-                max = o;
-            }
+    private Accumulator getAccumulator() {
+        if (accumulator == null) {
+            accumulator = createAccumulator();
         }
+        return accumulator;
     }
-}
-
-class SQLMinFunction extends AggregateFunction {
-
-    Expression expression;
-    Object min = null;
 
-    public SQLMinFunction(Expression expression) {
-        this.expression = expression;
+    static class NullResult implements Serializable {
+        private static final long serialVersionUID = 1L;
     }
+}
 
-    public Object eval(Map<String, Object> env) {
-        Object o = env.get("@GROUPROWS");
-        if (o != null) {
-            /*
-             * Find the minimum from the rows grouped together
-             * by the GROUP BY clause.
-             */
-            List groupRows = (List) o;
-            Object minInGroup = null;
-            for (int i = 0; i < groupRows.size(); i++) {
-                o = expression.eval((Map) groupRows.get(i));
-                if (o != null) {
-                    if (minInGroup == null || ((Comparable) minInGroup).compareTo(o) > 0) {
-                        minInGroup = o;
-                    }
-                }
-            }
-            return minInGroup;
-        }
-        return min;
-    }
+class SQLCountFunction extends AggregateFunction {
 
-    public String toString() {
-        return "MIN(" + expression + ")";
+    public SQLCountFunction(Expression expression) {
+        super(expression);
     }
 
-    public List<String> usedColumns() {
-        return new LinkedList<String>();
+    public String toString() {
+        return "COUNT(" + expression + ")";
     }
 
     public List<String> aggregateColumns() {
         List<String> result = new LinkedList<String>();
-        result.addAll(expression.usedColumns());
+        if (!(expression instanceof AsteriskExpression)) {
+            result.addAll(expression.usedColumns());
+        }
         return result;
     }
 
-    public List<AggregateFunction> aggregateFunctions() {
-        List<AggregateFunction> result = new LinkedList<AggregateFunction>();
-        result.add(this);
-        return result;
+    public Accumulator createAccumulator() {
+        return new CountAccumulator();
     }
 
-    public void processRow(Map<String, Object> env) {
-        /*
-         * Only consider non-null values.
-         */
-        Object o = expression.eval(env);
-        if (o != null) {
-            if (min == null || ((Comparable) min).compareTo(o) > 0) {
-                min = o;
-            }
+    public Object getValue(Object[] row) {
+        if (expression instanceof AsteriskExpression) {
+            return Boolean.TRUE;
         }
+        return super.getValue(row);
     }
-}
 
-class SQLSumFunction extends AggregateFunction {
-
-    Expression expression;
-    BigDecimal sum = null;
-    int counter = 0;
+    static class CountAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
 
-    public SQLSumFunction(Expression expression) {
-        this.expression = expression;
-    }
+        int counter = 0;
 
-    public Object eval(Map<String, Object> env) {
-        Object retval = null;
-        Object o = env.get("@GROUPROWS");
-        if (o != null) {
+        public void add(Object value) {
             /*
-             * Find the sum of rows grouped together
-             * by the GROUP BY clause.
+             * Only count non-null values.
              */
-            List groupRows = (List) o;
-            BigDecimal groupSum = null;
-            counter = 0;
-            for (int i = 0; i < groupRows.size(); i++) {
-                o = expression.eval((Map) groupRows.get(i));
-                if (o != null) {
-                    try {
-                        if (groupSum == null) {
-                            groupSum = new BigDecimal(o.toString());
-                        } else {
-                            groupSum = groupSum.add(new BigDecimal(o.toString()));
-                        }
-                        counter++;
-                    } catch (NumberFormatException e) {
-                    }
-                }
-            }
-            try {
-                if (groupSum != null) {
-                    retval = Long.valueOf(groupSum.longValueExact());
-                }
-            } catch (ArithmeticException e) {
-                retval = groupSum.doubleValue();
+            if (value != null) {
+                counter++;
             }
-            return retval;
         }
 
-        try {
-            if (sum != null) {
-                retval = Long.valueOf(sum.longValueExact());
-            }
-        } catch (ArithmeticException e) {
-            retval = sum.doubleValue();
+        public void merge(Accumulator other) {
+            counter += ((CountAccumulator) other).counter;
         }
-        return retval;
-    }
 
-    public String toString() {
-        return "SUM(" + expression + ")";
+        public long estimateSize() {
+            return 16;
+        }
+
+        public Object getResult() {
+            return Integer.valueOf(counter);
+        }
     }
+}
 
-    public List<String> usedColumns() {
-        return new LinkedList<String>();
+class SQLMaxFunction extends AggregateFunction {
+
+    public SQLMaxFunction(Expression expression) {
+        super(expression);
     }
 
-    public List<String> aggregateColumns() {
-        List<String> result = new LinkedList<String>();
-        result.addAll(expression.usedColumns());
-        return result;
+    public String toString() {
+        return "MAX(" + expression + ")";
     }
 
-    public List<AggregateFunction> aggregateFunctions() {
-        List<AggregateFunction> result = new LinkedList<AggregateFunction>();
-        result.add(this);
-        return result;
+    public Accumulator createAccumulator() {
+        if (valueType == VALUE_INTEGRAL) {
+            return new LongMaxAccumulator();
+        } else if (valueType == VALUE_FLOATING) {
+            return new DoubleMaxAccumulator();
+        }
+        return new MaxAccumulator();
     }
 
-    public void processRow(Map<String, Object> env) {
-        /*
-         * Only consider non-null values.
-         */
-        Object o = expression.eval(env);
-        if (o != null) {
-            try {
-                if (sum == null) {
-                    sum = new BigDecimal(o.toString());
-                } else {
-                    sum = sum.add(new BigDecimal(o.toString()));
+    static class MaxAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        Object max = null;
+
+        public void add(Object value) {
+            /*
+             * Only consider non-null values.
+             */
+            if (value != null) {
+                if (max == null || ((Comparable) max).compareTo(value) < 0) {
+                    max = value;
                 }
-                counter++;
-            } catch (NumberFormatException e) {
             }
         }
-    }
-}
 
-class SQLAvgFunction extends SQLSumFunction {
-
-    public SQLAvgFunction(Expression expression) {
-        super(expression);
-    }
+        public void merge(Accumulator other) {
+            add(((MaxAccumulator) other).max);
+        }
 
-    public Object eval(Map<String, Object> env) {
-        Object o = super.eval(env);
-        if (o != null) {
-            double average = ((Number) o).doubleValue() / counter;
-            o = new Double(average);
+        public long estimateSize() {
+            return 40;
         }
-        return o;
-    }
 
-    public String toString() {
-        return "AVG(" + expression + ")";
+        public Object getResult() {
+            return max;
+        }
     }
-}
+
+    /**
+     * Compares integer values as long, keeping the maximum value itself.
+     */
+    static class LongMaxAccumulator extends MaxAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        long longMax;
+
+        public void add(Object value) {
+            if (isIntegral(value) && (max == null || isIntegral(max))) {
+                long n = ((Number) value).longValue();
+                if (max == null || n > longMax) {
+                    max = value;
+                    longMax = n;
+                }
+            } else {
+                super.add(value);
+                if (isIntegral(max)) {
+                    longMax = ((Number) max).longValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares floating point values as double, keeping the maximum value itself.
+     */
+    static class DoubleMaxAccumulator extends MaxAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        double doubleMax;
+
+        public void add(Object value) {
+            if (isFloating(value) && (max == null || isFloating(max))) {
+                double d = ((Number) value).doubleValue();
+                if (max == null || Double.compare(d, doubleMax) > 0) {
+                    max = value;
+                    doubleMax = d;
+                }
+            } else {
+                super.add(value);
+                if (isFloating(max)) {
+                    doubleMax = ((Number) max).doubleValue();
+                }
+            }
+        }
+    }
+}
+
+class SQLMinFunction extends AggregateFunction {
+
+    public SQLMinFunction(Expression expression) {
+        super(expression);
+    }
+
+    public String toString() {
+        return "MIN(" + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        if (valueType == VALUE_INTEGRAL) {
+            return new LongMinAccumulator();
+        } else if (valueType == VALUE_FLOATING) {
+            return new DoubleMinAccumulator();
+        }
+        return new MinAccumulator();
+    }
+
+    static class MinAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        Object min = null;
+
+        public void add(Object value) {
+            /*
+             * Only consider non-null values.
+             */
+            if (value != null) {
+                if (min == null || ((Comparable) min).compareTo(value) > 0) {
+                    min = value;
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            add(((MinAccumulator) other).min);
+        }
+
+        public long estimateSize() {
+            return 40;
+        }
+
+        public Object getResult() {
+            return min;
+        }
+    }
+
+    /**
+     * Compares integer values as long, keeping the minimum value itself.
+     */
+    static class LongMinAccumulator extends MinAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        long longMin;
+
+        public void add(Object value) {
+            if (isIntegral(value) && (min == null || isIntegral(min))) {
+                long n = ((Number) value).longValue();
+                if (min == null || n < longMin) {
+                    min = value;
+                    longMin = n;
+                }
+            } else {
+                super.add(value);
+                if (isIntegral(min)) {
+                    longMin = ((Number) min).longValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares floating point values as double, keeping the minimum value itself.
+     */
+    static class DoubleMinAccumulator extends MinAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        double doubleMin;
+
+        public void add(Object value) {
+            if (isFloating(value) && (min == null || isFloating(min))) {
+                double d = ((Number) value).doubleValue();
+                if (min == null || Double.compare(d, doubleMin) < 0) {
+                    min = value;
+                    doubleMin = d;
+                }
+            } else {
+                super.add(value);
+                if (isFloating(min)) {
+                    doubleMin = ((Number) min).doubleValue();
+                }
+            }
+        }
+    }
+}
+
+class SQLSumFunction extends AggregateFunction {
+
+    public SQLSumFunction(Expression expression) {
+        super(expression);
+    }
+
+    public String toString() {
+        return "SUM(" + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        if (valueType == VALUE_INTEGRAL) {
+            return new LongSumAccumulator();
+        } else if (valueType == VALUE_FLOATING) {
+            return new DoubleSumAccumulator();
+        }
+        return new SumAccumulator();
+    }
+
+    static class SumAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        BigDecimal sum = null;
+        int counter = 0;
+
+        public void add(Object value) {
+            /*
+             * Only consider non-null values.
+             */
+            if (value != null) {
+                try {
+                    if (sum == null) {
+                        sum = new BigDecimal(value.toString());
+                    } else {
+                        sum = sum.add(new BigDecimal(value.toString()));
+                    }
+                    counter++;
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            SumAccumulator o = (SumAccumulator) other;
+            if (o.sum != null) {
+                sum = (sum == null) ? o.sum : sum.add(o.sum);
+            }
+            counter += o.counter;
+        }
+
+        public long estimateSize() {
+            return (sum == null) ? 40 : 104;
+        }
+
+        public Object getResult() {
+            Object retval = null;
+            try {
+                if (sum != null) {
+                    retval = Long.valueOf(sum.longValueExact());
+                }
+            } catch (ArithmeticException e) {
+                retval = sum.doubleValue();
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Sums integer values as long, changing to BigDecimal only if the sum
+     * overflows or a value of another type is added.
+     */
+    static class LongSumAccumulator extends SumAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        long longSum = 0;
+
+        public void add(Object value) {
+            if (sum == null && isIntegral(value)) {
+                long n = ((Number) value).longValue();
+                long result = longSum + n;
+                /*
+                 * Overflow if both operands have the opposite sign to the result.
+                 */
+                if (((longSum ^ result) & (n ^ result)) >= 0) {
+                    longSum = result;
+                    counter++;
+                    return;
+                }
+            }
+            if (value != null && sum == null) {
+                sum = BigDecimal.valueOf(longSum);
+            }
+            super.add(value);
+        }
+
+        public void merge(Accumulator other) {
+            LongSumAccumulator o = (LongSumAccumulator) other;
+            if (o.counter == 0) {
+                return;
+            }
+            if (sum == null && o.sum == null) {
+                long result = longSum + o.longSum;
+                if (((longSum ^ result) & (o.longSum ^ result)) >= 0) {
+                    longSum = result;
+                    counter += o.counter;
+                    return;
+                }
+            }
+            if (sum == null) {
+                sum = BigDecimal.valueOf(longSum);
+            }
+            sum = sum.add((o.sum != null) ? o.sum : BigDecimal.valueOf(o.longSum));
+            counter += o.counter;
+        }
+
+        public Object getResult() {
+            if (counter == 0) {
+                return null;
+            }
+            if (sum == null) {
+                return Long.valueOf(longSum);
+            }
+            return super.getResult();
+        }
+    }
+
+    /**
+     * Sums floating point values as double, with Kahan summation to keep the
+     * rounding error from growing with the number of values. Values of Double
+     * columns use double arithmetic here and in expressions, see
+     * BinaryOperation.applyDecimal, so SUM(P) and P1 + P2 round the same way.
+     */
+    static class DoubleSumAccumulator extends SumAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        double doubleSum = 0;
+        double compensation = 0;
+
+        public void add(Object value) {
+            /*
+             * Only consider non-null numeric values.
+             */
+            if (value == null) {
+                return;
+            }
+            double d;
+            if (value instanceof Double) {
+                d = ((Double) value).doubleValue();
+            } else {
+                try {
+                    d = Double.parseDouble(value.toString());
+                } catch (NumberFormatException e) {
+                    return;
+                }
+            }
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return;
+            }
+            addDouble(d);
+            counter++;
+        }
+
+        public void merge(Accumulator other) {
+            DoubleSumAccumulator o = (DoubleSumAccumulator) other;
+            addDouble(o.doubleSum);
+            addDouble(-o.compensation);
+            counter += o.counter;
+        }
+
+        private void addDouble(double d) {
+            double y = d - compensation;
+            double t = doubleSum + y;
+            compensation = (t - doubleSum) - y;
+            doubleSum = t;
+        }
+
+        public Object getResult() {
+            if (counter == 0) {
+                return null;
+            }
+            /*
+             * Whole numbers are returned as integers, the same as
+             * for sums of values of other types.
+             */
+            if (doubleSum == Math.rint(doubleSum) && Math.abs(doubleSum) < 9.223372036854775807E18) {
+                return Long.valueOf((long) doubleSum);
+            }
+            return Double.valueOf(doubleSum);
+        }
+    }
+}
+
+class SQLAvgFunction extends SQLSumFunction {
+
+    public SQLAvgFunction(Expression expression) {
+        super(expression);
+    }
+
+    public String toString() {
+        return "AVG(" + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new AvgAccumulator((SumAccumulator) super.createAccumulator());
+    }
+
+    static class AvgAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        SumAccumulator sum;
+
+        AvgAccumulator(SumAccumulator sum) {
+            this.sum = sum;
+        }
+
+        public void add(Object value) {
+            sum.add(value);
+        }
+
+        public void merge(Accumulator other) {
+            sum.merge(((AvgAccumulator) other).sum);
+        }
+
+        public long estimateSize() {
+            return 16 + sum.estimateSize();
+        }
+
+        public Object getResult() {
+            Object o = sum.getResult();
+            if (o != null) {
+                double average = ((Number) o).doubleValue() / sum.counter;
+                o = new Double(average);
+            }
+            return o;
+        }
+    }
+}
+
+class SQLCountDistinctFunction extends AggregateFunction {
+
+    public SQLCountDistinctFunction(Expression expression) {
+        super(expression);
+    }
+
+    public String toString() {
+        return "COUNT(DISTINCT " + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new CountDistinctAccumulator();
+    }
+
+    static class CountDistinctAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        HashSet<Object> values = new HashSet<Object>();
+
+        public void add(Object value) {
+            if (value != null) {
+                values.add(value);
+            }
+        }
+
+        public void merge(Accumulator other) {
+            values.addAll(((CountDistinctAccumulator) other).values);
+        }
+
+        public long estimateSize() {
+            /*
+             * A hash set entry and its boxed value take about 64 bytes.
+             */
+            return 64 + 64L * values.size();
+        }
+
+        public Object getResult() {
+            return Integer.valueOf(values.size());
+        }
+    }
+}
+
+/**
+ * Estimate of the number of distinct values, using a HyperLogLog sketch of
+ * fixed size instead of keeping the values themselves.
+ */
+class SQLApproxCountDistinctFunction extends AggregateFunction {
+
+    public SQLApproxCountDistinctFunction(Expression expression) {
+        super(expression);
+    }
+
+    public String toString() {
+        return "APPROX_COUNT_DISTINCT(" + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new HyperLogLogAccumulator();
+    }
+
+    /**
+     * Each value is hashed to 64 bits. The first bits choose a register,
+     * which keeps the highest position of the first one bit seen in the
+     * remaining bits. The registers of two sketches are merged by taking
+     * the maximum of each. The standard error is about 1.04 / sqrt(2^PRECISION).
+     */
+    static class HyperLogLogAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        static final int PRECISION = 14;
+
+        byte[] registers = new byte[1 << PRECISION];
+
+        public void add(Object value) {
+            if (value != null) {
+                long h = hash(value);
+                int index = (int) (h >>> (64 - PRECISION));
+                long w = (h << PRECISION) | (1L << (PRECISION - 1));
+                byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+                if (rank > registers[index]) {
+                    registers[index] = rank;
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            byte[] otherRegisters = ((HyperLogLogAccumulator) other).registers;
+            for (int i = 0; i < registers.length; i++) {
+                if (otherRegisters[i] > registers[i]) {
+                    registers[i] = otherRegisters[i];
+                }
+            }
+        }
+
+        public long estimateSize() {
+            return 32 + registers.length;
+        }
+
+        public Object getResult() {
+            int m = registers.length;
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < m; i++) {
+                sum += 1.0 / (1L << registers[i]);
+                if (registers[i] == 0) {
+                    zeros++;
+                }
+            }
+            double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+            if (estimate <= 2.5 * m && zeros > 0) {
+                /*
+                 * Linear counting is more accurate for small numbers of values.
+                 */
+                estimate = m * Math.log((double) m / zeros);
+            }
+            return Long.valueOf(Math.round(estimate));
+        }
+
+        /**
+         * @return 64 bit hash of value, equal for equal values.
+         */
+        static long hash(Object value) {
+            long h;
+            if (value instanceof String) {
+                String s = (String) value;
+                h = 0;
+                for (int i = 0; i < s.length(); i++) {
+                    h = (h + s.charAt(i)) * 0x9E3779B97F4A7C15L;
+                }
+                h ^= s.length();
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                h = ((Number) value).longValue();
+            } else if (value instanceof Double) {
+                h = Double.doubleToLongBits(((Double) value).doubleValue());
+            } else {
+                h = value.hashCode();
+            }
+
+            /*
+             * Mix all bits, so that similar values give unrelated hashes.
+             */
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
+
+/**
+ * Estimate of the value at a fraction of the way through the sorted values,
+ * using a KLL sketch of bounded size instead of keeping all values.
+ */
+class SQLApproxPercentileFunction extends AggregateFunction {
+
+    double fraction;
+
+    public SQLApproxPercentileFunction(Expression expression, double fraction) {
+        super(expression);
+        this.fraction = fraction;
+    }
+
+    public String toString() {
+        return "APPROX_PERCENTILE(" + expression + ", " + fraction + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new QuantileAccumulator(fraction);
+    }
+
+    /**
+     * Values are kept in levels, each value at level h standing for 2^h of
+     * the values added. When a level is full it is sorted and every other
+     * value, starting alternately with the first or the second, moves up
+     * to the next level. Lower levels hold fewer values than higher ones,
+     * so the sketch stays small however many values are added, while the
+     * rank of any value is estimated to within about one percent.
+     * Two sketches are merged by joining their levels and compacting again.
+     */
+    static class QuantileAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        static final int K = 200;
+
+        double fraction;
+        double[][] levels = new double[][]{new double[8]};
+        int[] sizes = new int[1];
+        boolean oddCompaction = false;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        QuantileAccumulator(double fraction) {
+            this.fraction = fraction;
+        }
+
+        public void add(Object value) {
+            if (value != null) {
+                double d = toDouble(value);
+                if (!Double.isNaN(d)) {
+                    min = Math.min(min, d);
+                    max = Math.max(max, d);
+                    insert(0, d);
+                    if (sizes[0] >= capacity(0)) {
+                        compress();
+                    }
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            QuantileAccumulator o = (QuantileAccumulator) other;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+            for (int h = 0; h < o.levels.length; h++) {
+                for (int i = 0; i < o.sizes[h]; i++) {
+                    insert(h, o.levels[h][i]);
+                }
+            }
+            compress();
+        }
+
+        public long estimateSize() {
+            long size = 64 + 4L * sizes.length;
+            for (int h = 0; h < levels.length; h++) {
+                size += 16 + 8L * levels[h].length;
+            }
+            return size;
+        }
+
+        public Object getResult() {
+            int n = 0;
+            for (int h = 0; h < levels.length; h++) {
+                n += sizes[h];
+            }
+            if (n == 0) {
+                return null;
+            }
+
+            /*
+             * The smallest and largest values are known exactly.
+             */
+            if (fraction == 0) {
+                return new Double(min);
+            }
+            if (fraction == 1) {
+                return new Double(max);
+            }
+            double[] values = new double[n];
+            long[] weights = new long[n];
+            long totalWeight = 0;
+            int j = 0;
+            for (int h = 0; h < levels.length; h++) {
+                Arrays.sort(levels[h], 0, sizes[h]);
+                for (int i = 0; i < sizes[h]; i++) {
+                    values[j] = levels[h][i];
+                    weights[j] = 1L << h;
+                    totalWeight += weights[j];
+                    j++;
+                }
+            }
+            sortByValue(values, weights);
+
+            /*
+             * Return the first value whose rank reaches the fraction of all values.
+             */
+            long rank = Math.max(1, (long) Math.ceil(fraction * totalWeight));
+            long cumulative = 0;
+            for (int i = 0; i < n; i++) {
+                cumulative += weights[i];
+                if (cumulative >= rank) {
+                    return new Double(values[i]);
+                }
+            }
+            return new Double(values[n - 1]);
+        }
+
+        private int capacity(int level) {
+            int depth = levels.length - 1 - level;
+            return Math.max(2, (int) Math.ceil(K * Math.pow(2.0 / 3.0, depth)));
+        }
+
+        private void insert(int level, double d) {
+            if (level == levels.length) {
+                levels = Arrays.copyOf(levels, level + 1);
+                levels[level] = new double[8];
+                sizes = Arrays.copyOf(sizes, level + 1);
+            }
+            if (sizes[level] == levels[level].length) {
+                levels[level] = Arrays.copyOf(levels[level], sizes[level] * 2);
+            }
+            levels[level][sizes[level]++] = d;
+        }
+
+        /**
+         * Compact each level that is over its capacity, lowest level first.
+         */
+        private void compress() {
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacity(h)) {
+                    double[] level = levels[h];
+                    int size = sizes[h];
+                    Arrays.sort(level, 0, size);
+                    int pairs = size & ~1;
+                    for (int i = oddCompaction ? 1 : 0; i < pairs; i += 2) {
+                        insert(h + 1, level[i]);
+                    }
+                    oddCompaction = !oddCompaction;
+
+                    /*
+                     * Keep the largest value at this level if there is an odd number.
+                     */
+                    level[0] = level[size - 1];
+                    sizes[h] = size - pairs;
+                }
+            }
+        }
+
+        private static void sortByValue(double[] values, long[] weights) {
+            Integer[] order = new Integer[values.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = Integer.valueOf(i);
+            }
+            final double[] v = values;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Double.compare(v[i1.intValue()], v[i2.intValue()]);
+                }
+            });
+            double[] sortedValues = new double[values.length];
+            long[] sortedWeights = new long[weights.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedValues[i] = values[order[i].intValue()];
+                sortedWeights[i] = weights[order[i].intValue()];
+            }
+            System.arraycopy(sortedValues, 0, values, 0, values.length);
+            System.arraycopy(sortedWeights, 0, weights, 0, weights.length);
+        }
+    }
+}
+
+class SQLMedianFunction extends SQLApproxPercentileFunction {
+
+    public SQLMedianFunction(Expression expression) {
+        super(expression, 0.5);
+    }
+
+    public String toString() {
+        return "MEDIAN(" + expression + ")";
+    }
+}
+
+/**
+ * Variance or standard deviation of the population or of a sample, computed
+ * in one pass with Welford's method.
+ */
+class SQLVarianceFunction extends AggregateFunction {
+
+    String name;
+    boolean sample;
+    boolean squareRoot;
+
+    public SQLVarianceFunction(Expression expression, String name, boolean sample, boolean squareRoot) {
+        super(expression);
+        this.name = name;
+        this.sample = sample;
+        this.squareRoot = squareRoot;
+    }
+
+    public String toString() {
+        return name + "(" + expression + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new VarianceAccumulator(sample, squareRoot);
+    }
+
+    /**
+     * Keeps the count, the mean and the sum of squared differences from the
+     * mean, updated for each value without the loss of precision of
+     * subtracting large sums of squares.
+     */
+    static class VarianceAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        boolean sample;
+        boolean squareRoot;
+        long count = 0;
+        double mean = 0;
+        double m2 = 0;
+
+        VarianceAccumulator(boolean sample, boolean squareRoot) {
+            this.sample = sample;
+            this.squareRoot = squareRoot;
+        }
+
+        public void add(Object value) {
+            if (value != null) {
+                double d = toDouble(value);
+                if (!Double.isNaN(d)) {
+                    count++;
+                    double delta = d - mean;
+                    mean += delta / count;
+                    m2 += delta * (d - mean);
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            VarianceAccumulator o = (VarianceAccumulator) other;
+            if (o.count > 0) {
+                long n = count + o.count;
+                double delta = o.mean - mean;
+                mean += delta * o.count / n;
+                m2 += o.m2 + delta * delta * ((double) count * o.count / n);
+                count = n;
+            }
+        }
+
+        public long estimateSize() {
+            return 48;
+        }
+
+        public Object getResult() {
+            long divisor = sample ? count - 1 : count;
+            if (divisor <= 0) {
+                return null;
+            }
+            double variance = m2 / divisor;
+            return new Double(squareRoot ? Math.sqrt(variance) : variance);
+        }
+    }
+}
+
+/**
+ * Covariance of two expressions for the population or for a sample,
+ * computed in one pass from rows where both values are numbers.
+ */
+class SQLCovarianceFunction extends AggregateFunction {
+
+    Expression expression2;
+    Expression compiledExpression2;
+    String name;
+    boolean sample;
+
+    public SQLCovarianceFunction(Expression expression, Expression expression2, String name, boolean sample) {
+        super(expression);
+        this.expression2 = expression2;
+        this.compiledExpression2 = expression2;
+        this.name = name;
+        this.sample = sample;
+    }
+
+    public String toString() {
+        return name + "(" + expression + ", " + expression2 + ")";
+    }
+
+    public void resolve(RowLayout layout) {
+        super.resolve(layout);
+        expression2.resolve(layout);
+        compiledExpression2 = expression2;
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        compiledExpression2 = expression2.simplify().compile(sampleRecord);
+        return super.compile(sampleRecord);
+    }
+
+    public List<String> aggregateColumns() {
+        List<String> result = super.aggregateColumns();
+        result.addAll(expression2.usedColumns());
+        return result;
+    }
+
+    public Accumulator createAccumulator() {
+        return new CovarianceAccumulator(sample);
+    }
+
+    /**
+     * @return both values for a row, as an array.
+     */
+    public Object getValue(Object[] row) {
+        return new Object[]{compiledExpression.eval(row), compiledExpression2.eval(row)};
+    }
+
+    static class CovarianceAccumulator implements Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        boolean sample;
+        long count = 0;
+        double meanX = 0;
+        double meanY = 0;
+        double c = 0;
+
+        CovarianceAccumulator(boolean sample) {
+            this.sample = sample;
+        }
+
+        public void add(Object value) {
+            Object[] values = (Object[]) value;
+            if (values[0] != null && values[1] != null) {
+                double x = toDouble(values[0]);
+                double y = toDouble(values[1]);
+                if (!Double.isNaN(x) && !Double.isNaN(y)) {
+                    count++;
+                    double dx = x - meanX;
+                    meanX += dx / count;
+                    meanY += (y - meanY) / count;
+                    c += dx * (y - meanY);
+                }
+            }
+        }
+
+        public void merge(Accumulator other) {
+            CovarianceAccumulator o = (CovarianceAccumulator) other;
+            if (o.count > 0) {
+                long n = count + o.count;
+                double dx = o.meanX - meanX;
+                double dy = o.meanY - meanY;
+                c += o.c + dx * dy * ((double) count * o.count / n);
+                meanX += dx * o.count / n;
+                meanY += dy * o.count / n;
+                count = n;
+            }
+        }
+
+        public long estimateSize() {
+            return 56;
+        }
+
+        public Object getResult() {
+            long divisor = sample ? count - 1 : count;
+            if (divisor <= 0) {
+                return null;
+            }
+            return new Double(c / divisor);
+        }
+    }
+}
 
 class QueryEnvEntry extends Expression {
 
@@ -579,8 +1643,12 @@ class QueryEnvEntry extends Expression {
         this.expression = exp;
     }
 
-    public Object eval(Map<String, Object> env) {
-        return expression.eval(env);
+    public Object eval(Object[] row) {
+        return expression.eval(row);
+    }
+
+    public void resolve(RowLayout layout) {
+        expression.resolve(layout);
     }
 
     public String toString() {
@@ -599,11 +1667,61 @@ class OrderByEntry extends Expression {
     }
 }
 
+/**
+ * Grouping sets of a GROUP BY clause, each a list of the expressions to
+ * group by, given by GROUPING SETS, ROLLUP or CUBE.
+ */
+class GroupingSets extends Expression {
+
+    List<List<Expression>> sets;
+
+    public GroupingSets(List<List<Expression>> sets) {
+        this.sets = sets;
+    }
+
+    /**
+     * @return grouping sets of all expressions, of all but the last
+     * expression, and so on down to no expressions.
+     */
+    public static GroupingSets rollup(List<Expression> expressions) {
+        List<List<Expression>> sets = new ArrayList<List<Expression>>();
+        for (int n = expressions.size(); n >= 0; n--) {
+            sets.add(new ArrayList<Expression>(expressions.subList(0, n)));
+        }
+        return new GroupingSets(sets);
+    }
+
+    /**
+     * @return grouping sets of every combination of the expressions, from
+     * all expressions down to no expressions.
+     * @throws ParseException if there are too many expressions.
+     */
+    public static GroupingSets cube(List<Expression> expressions) throws ParseException {
+        if (expressions.size() > 12) {
+            throw new ParseException("Too many CUBE expressions: " + expressions.size());
+        }
+        List<List<Expression>> sets = new ArrayList<List<Expression>>();
+        int all = (1 << expressions.size()) - 1;
+        for (int mask = all; mask >= 0; mask--) {
+            List<Expression> set = new ArrayList<Expression>();
+            for (int i = 0; i < expressions.size(); i++) {
+                if ((mask & (1 << (expressions.size() - 1 - i))) != 0) {
+                    set.add(expressions.get(i));
+                }
+            }
+            sets.add(set);
+        }
+        return new GroupingSets(sets);
+    }
+}
+
 class BinaryOperation extends Expression {
 
     private static final long MILLISECONDS_PER_DAY = 24 * 60 * 60 * 1000;
+    private static final MathContext DIVIDE_CONTEXT = new MathContext("precision=14 roundingMode=HALF_UP");
     char op;
     Expression left, right;
+    StringConverter converter;
 
     public BinaryOperation(char op, Expression left, Expression right) {
         this.op = op;
@@ -611,10 +1729,14 @@ class BinaryOperation extends Expression {
         this.right = right;
     }
 
-    public Object eval(Map<String, Object> env) {
-        Object leftEval = left.eval(env);
-        Object rightEval = right.eval(env);
+    public Object eval(Object[] row) {
+        return apply(left.eval(row), right.eval(row));
+    }
 
+    /**
+     * Apply the operator to the values of both operands.
+     */
+    Object apply(Object leftEval, Object rightEval) {
         if (leftEval == null || rightEval == null) {
             return null;
         }
@@ -660,38 +1782,19 @@ class BinaryOperation extends Expression {
             if (isLongExpression) {
                 return new Long(bil.toString());
             } else {
-                return new Integer(bil.toString());
-            }
-        } catch (ClassCastException e) {
-        }
-        try {
-            Number leftN = (Number) leftEval;
-            BigDecimal bdl = new BigDecimal(leftN.toString());
-            Number rightN = (Number) rightEval;
-            BigDecimal bdr = new BigDecimal(rightN.toString());
-            if (op == '+') {
-                return new Double(bdl.add(bdr).toString());
-            }
-            if (op == '-') {
-                return new Double(bdl.subtract(bdr).toString());
-            }
-            if (op == '*') {
-                return new Double(bdl.multiply(bdr).toString());
-            }
-            MathContext mc = new MathContext("precision=14 roundingMode=HALF_UP");
-            if (op == '/') {
-                return new Double(bdl.divide(bdr, mc.getPrecision(), mc.getRoundingMode()).toString());
+                return new Integer(bil.toString());
             }
         } catch (ClassCastException e) {
         }
+        if (leftEval instanceof Number && rightEval instanceof Number) {
+            return applyDecimal((Number) leftEval, (Number) rightEval);
+        }
         try {
             if (op == '+' && leftEval instanceof Date) {
                 Date leftD = (Date) leftEval;
                 if (rightEval instanceof Time) {
                     Time rightT = (Time) rightEval;
-                    Expression stringConverter = new ColumnName("@StringConverter");
-                    StringConverter sc = (StringConverter) stringConverter.eval(env);
-                    return sc.parseTimestamp(leftD.toString() + " " + rightT.toString());
+                    return converter.parseTimestamp(leftD.toString() + " " + rightT.toString());
                 } else {
                     Long rightLong;
                     if (rightEval instanceof Short) {
@@ -707,9 +1810,7 @@ class BinaryOperation extends Expression {
                 Date rightD = (Date) rightEval;
                 if (leftEval instanceof Time) {
                     Time leftT = (Time) leftEval;
-                    Expression stringConverter = new ColumnName("@StringConverter");
-                    StringConverter sc = (StringConverter) stringConverter.eval(env);
-                    return sc.parseTimestamp(rightD.toString() + " " + leftT.toString());
+                    return converter.parseTimestamp(rightD.toString() + " " + leftT.toString());
                 } else {
                     Long leftLong;
                     if (leftEval instanceof Short) {
@@ -729,14 +1830,10 @@ class BinaryOperation extends Expression {
                 return incrementDate((Date) leftEval, -((Short) rightEval).intValue());
             } else if (op == '-' && (leftEval instanceof Date || rightEval instanceof Date)) {
                 if (!(leftEval instanceof Date)) {
-                    Expression stringConverter = new ColumnName("@StringConverter");
-                    StringConverter sc = (StringConverter) stringConverter.eval(env);
-                    leftEval = sc.parseDate(leftEval.toString());
+                    leftEval = converter.parseDate(leftEval.toString());
                 }
                 if (!(rightEval instanceof Date)) {
-                    Expression stringConverter = new ColumnName("@StringConverter");
-                    StringConverter sc = (StringConverter) stringConverter.eval(env);
-                    rightEval = sc.parseDate(rightEval.toString());
+                    rightEval = converter.parseDate(rightEval.toString());
                 }
                 if (leftEval != null && rightEval != null) {
                     long nMillis = ((Date) leftEval).getTime() - ((Date) (rightEval)).getTime();
@@ -767,6 +1864,91 @@ class BinaryOperation extends Expression {
         return null;
     }
 
+    /**
+     * Apply the operator to numbers that are not both integers. Double and
+     * Float values, such as values of Double columns and decimal literals,
+     * use double arithmetic, the same as SUM and AVG of Double columns, so
+     * 0.1 + 0.2 is 0.30000000000000004. Only BigDecimal operands and
+     * division by zero use decimal arithmetic.
+     */
+    Object applyDecimal(Number leftN, Number rightN) {
+        if (!(leftN instanceof BigDecimal || rightN instanceof BigDecimal
+                || leftN instanceof BigInteger || rightN instanceof BigInteger)) {
+            double a = leftN.doubleValue();
+            double b = rightN.doubleValue();
+            switch (op) {
+                case '+':
+                    return Double.valueOf(a + b);
+                case '-':
+                    return Double.valueOf(a - b);
+                case '*':
+                    return Double.valueOf(a * b);
+                case '/':
+                    if (b != 0) {
+                        return Double.valueOf(a / b);
+                    }
+                    break;
+            }
+        }
+        BigDecimal bdl = new BigDecimal(leftN.toString());
+        BigDecimal bdr = new BigDecimal(rightN.toString());
+        if (op == '+') {
+            return new Double(bdl.add(bdr).toString());
+        }
+        if (op == '-') {
+            return new Double(bdl.subtract(bdr).toString());
+        }
+        if (op == '*') {
+            return new Double(bdl.multiply(bdr).toString());
+        }
+        return new Double(bdl.divide(bdr, DIVIDE_CONTEXT.getPrecision(), DIVIDE_CONTEXT.getRoundingMode()).toString());
+    }
+
+    public Expression simplify() {
+        Expression simplifiedLeft = left.simplify();
+        Expression simplifiedRight = right.simplify();
+        BinaryOperation operation = this;
+        if (simplifiedLeft != left || simplifiedRight != right) {
+            operation = new BinaryOperation(op, simplifiedLeft, simplifiedRight);
+            operation.converter = converter;
+        }
+        if (simplifiedLeft.isConstant() && simplifiedRight.isConstant()) {
+            return fold(operation);
+        }
+        return operation;
+    }
+
+    /**
+     * Compile into an operation specialized for the types of both operands,
+     * falling back to this operation for values of other types.
+     */
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiledLeft = left.compile(sampleRecord);
+        Expression compiledRight = right.compile(sampleRecord);
+        BinaryOperation operation = this;
+        if (compiledLeft != left || compiledRight != right) {
+            operation = new BinaryOperation(op, compiledLeft, compiledRight);
+            operation.converter = converter;
+        }
+        Object leftValue = evalSample(compiledLeft, sampleRecord);
+        Object rightValue = evalSample(compiledRight, sampleRecord);
+        if (isInteger(leftValue) && isInteger(rightValue)) {
+            return new IntegerOperation(operation);
+        } else if (leftValue instanceof Number && rightValue instanceof Number) {
+            return new DecimalOperation(operation);
+        } else if (op == '+' && leftValue instanceof String) {
+            return new ConcatOperation(operation);
+        }
+        return operation;
+    }
+
+    /**
+     * @return true if value is added, subtracted, multiplied and divided as an integer.
+     */
+    static boolean isInteger(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short;
+    }
+
     private Date incrementDate(Date date, long nDays) {
         long newTime = date.getTime()
                 + nDays * MILLISECONDS_PER_DAY + MILLISECONDS_PER_DAY / 2;
@@ -776,6 +1958,12 @@ class BinaryOperation extends Expression {
         return newDate;
     }
 
+    public void resolve(RowLayout layout) {
+        converter = layout.getConverter();
+        left.resolve(layout);
+        right.resolve(layout);
+    }
+
     public String toString() {
         return "" + op + " " + left + " " + right;
     }
@@ -795,41 +1983,249 @@ class BinaryOperation extends Expression {
     }
 }
 
+/**
+ * Binary operation on integer operands, computed with primitive long
+ * arithmetic instead of BigInteger. Results that overflow, division by zero
+ * and operands of other types are left to the operation being compiled.
+ */
+class IntegerOperation extends Expression {
+
+    BinaryOperation operation;
+
+    public IntegerOperation(BinaryOperation operation) {
+        this.operation = operation;
+    }
+
+    public Object eval(Object[] row) {
+        Object leftEval = operation.left.eval(row);
+        Object rightEval = operation.right.eval(row);
+        if (BinaryOperation.isInteger(leftEval) && BinaryOperation.isInteger(rightEval)) {
+            long a = ((Number) leftEval).longValue();
+            long b = ((Number) rightEval).longValue();
+            if (leftEval instanceof Long || rightEval instanceof Long) {
+                long result;
+                switch (operation.op) {
+                    case '+':
+                        result = a + b;
+                        if (((a ^ result) & (b ^ result)) >= 0) {
+                            return Long.valueOf(result);
+                        }
+                        break;
+                    case '-':
+                        result = a - b;
+                        if (((a ^ b) & (a ^ result)) >= 0) {
+                            return Long.valueOf(result);
+                        }
+                        break;
+                    case '*':
+                        result = a * b;
+                        if (((Math.abs(a) | Math.abs(b)) >>> 31) == 0
+                                || ((b == 0 || result / b == a) && !(a == Long.MIN_VALUE && b == -1))) {
+                            return Long.valueOf(result);
+                        }
+                        break;
+                    case '/':
+                        if (b != 0 && !(a == Long.MIN_VALUE && b == -1)) {
+                            return Long.valueOf(a / b);
+                        }
+                        break;
+                }
+            } else {
+                long result;
+                switch (operation.op) {
+                    case '+':
+                        result = a + b;
+                        break;
+                    case '-':
+                        result = a - b;
+                        break;
+                    case '*':
+                        result = a * b;
+                        break;
+                    case '/':
+                        result = (b != 0) ? a / b : Long.MIN_VALUE;
+                        break;
+                    default:
+                        result = Long.MIN_VALUE;
+                }
+                if (result == (int) result) {
+                    return Integer.valueOf((int) result);
+                }
+            }
+        }
+        return operation.apply(leftEval, rightEval);
+    }
+
+    public String toString() {
+        return operation.toString();
+    }
+
+    public List<String> usedColumns() {
+        return operation.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return operation.aggregateFunctions();
+    }
+}
+
+/**
+ * Binary operation on numeric operands that are not both integers, going
+ * straight to decimal arithmetic.
+ */
+class DecimalOperation extends Expression {
+
+    BinaryOperation operation;
+
+    public DecimalOperation(BinaryOperation operation) {
+        this.operation = operation;
+    }
+
+    public Object eval(Object[] row) {
+        Object leftEval = operation.left.eval(row);
+        Object rightEval = operation.right.eval(row);
+        if (leftEval instanceof Number && rightEval instanceof Number
+                && !(BinaryOperation.isInteger(leftEval) && BinaryOperation.isInteger(rightEval))) {
+            return operation.applyDecimal((Number) leftEval, (Number) rightEval);
+        }
+        return operation.apply(leftEval, rightEval);
+    }
+
+    public String toString() {
+        return operation.toString();
+    }
+
+    public List<String> usedColumns() {
+        return operation.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return operation.aggregateFunctions();
+    }
+}
+
+/**
+ * Addition of a string and any other value, which concatenates them.
+ */
+class ConcatOperation extends Expression {
+
+    BinaryOperation operation;
+
+    public ConcatOperation(BinaryOperation operation) {
+        this.operation = operation;
+    }
+
+    public Object eval(Object[] row) {
+        Object leftEval = operation.left.eval(row);
+        Object rightEval = operation.right.eval(row);
+        if (leftEval instanceof String && rightEval != null) {
+            return (String) leftEval + rightEval;
+        }
+        return operation.apply(leftEval, rightEval);
+    }
+
+    public String toString() {
+        return operation.toString();
+    }
+
+    public List<String> usedColumns() {
+        return operation.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return operation.aggregateFunctions();
+    }
+}
+
 abstract class LogicalExpression extends Expression {
 
-    public boolean isTrue(Map<String, Object> env) {
+    public boolean isTrue(Object[] row) {
         return false;
     }
+
+    /**
+     * Evaluate a condition that is the same for every record into a constant.
+     *
+     * @param expression condition with only constant operands.
+     * @return constant, or the condition itself if it cannot be evaluated
+     * before the records are read.
+     */
+    static LogicalExpression foldPredicate(LogicalExpression expression) {
+        try {
+            return new BooleanConstant(expression.isTrue(null), expression);
+        } catch (RuntimeException e) {
+            return expression;
+        }
+    }
+}
+
+/**
+ * Condition that is always true or always false.
+ */
+class BooleanConstant extends LogicalExpression {
+
+    boolean value;
+    Expression expression;
+
+    public BooleanConstant(boolean value, Expression expression) {
+        this.value = value;
+        this.expression = expression;
+    }
+
+    public boolean isTrue(Object[] row) {
+        return value;
+    }
+
+    public boolean isConstant() {
+        return true;
+    }
+
+    public String toString() {
+        return expression.toString();
+    }
+
+    public List<String> usedColumns() {
+        return new LinkedList<String>();
+    }
 }
 
 class ParsedExpression extends LogicalExpression {
 
     public Expression content;
-    private Map<String, Object> placeholders;
+    private Object[] placeholderValues;
 
     public ParsedExpression(Expression left) {
         content = left;
-        placeholders = new HashMap<String, Object>();
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        if (placeholders != null) {
-            Map<String, Object> useThisEnv = new HashMap<String, Object>();
-            useThisEnv.putAll(env);
-            useThisEnv.putAll(placeholders);
-            env = useThisEnv;
-        }
-        return ((LogicalExpression) content).isTrue(env);
+    public boolean isTrue(Object[] row) {
+        return ((LogicalExpression) content).isTrue(row);
+    }
+
+    public Object eval(Object[] row) {
+        return content.eval(row);
     }
 
-    public Object eval(Map<String, Object> env) {
-        if (placeholders != null) {
-            Map<String, Object> useThisEnv = new HashMap<String, Object>();
-            useThisEnv.putAll(env);
-            useThisEnv.putAll(placeholders);
-            env = useThisEnv;
+    public void resolve(RowLayout layout) {
+        if (placeholderValues != null) {
+            layout = new RowLayout(layout);
+            layout.setPlaceholderValues(placeholderValues);
         }
-        return content.eval(env);
+        content.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = content.simplify();
+        return (simplified == content) ? this : new ParsedExpression(simplified);
+    }
+
+    public boolean isConstant() {
+        return content.isConstant();
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = content.compile(sampleRecord);
+        return (compiled == content) ? this : new ParsedExpression(compiled);
     }
 
     public String toString() {
@@ -849,9 +2245,7 @@ class ParsedExpression extends LogicalExpression {
     }
 
     public void setPlaceholdersValues(Object[] values) {
-        for (int i = 1; i < values.length; i++) {
-            placeholders.put("?" + i, values[i]);
-        }
+        placeholderValues = values.clone();
     }
 }
 
@@ -863,8 +2257,28 @@ class NotExpression extends LogicalExpression {
         this.content = arg;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        return !content.isTrue(env);
+    public boolean isTrue(Object[] row) {
+        return !content.isTrue(row);
+    }
+
+    public void resolve(RowLayout layout) {
+        content.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = content.simplify();
+        if (simplified instanceof NotExpression) {
+            return ((NotExpression) simplified).content;
+        }
+        if (simplified.isConstant()) {
+            return foldPredicate(new NotExpression((LogicalExpression) simplified));
+        }
+        return (simplified == content) ? this : new NotExpression((LogicalExpression) simplified);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = content.compile(sampleRecord);
+        return (compiled == content) ? this : new NotExpression((LogicalExpression) compiled);
     }
 
     public String toString() {
@@ -889,8 +2303,41 @@ class OrExpression extends LogicalExpression {
         this.right = right;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        return left.isTrue(env) || right.isTrue(env);
+    public boolean isTrue(Object[] row) {
+        return left.isTrue(row) || right.isTrue(row);
+    }
+
+    public void resolve(RowLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+    }
+
+    /**
+     * Remove operands that are always false, or replace the condition by
+     * an operand that is always true.
+     */
+    public Expression simplify() {
+        Expression simplifiedLeft = left.simplify();
+        Expression simplifiedRight = right.simplify();
+        if (simplifiedLeft.isConstant()) {
+            return simplifiedLeft.isTrue(null) ? simplifiedLeft : simplifiedRight;
+        }
+        if (simplifiedRight.isConstant()) {
+            return simplifiedRight.isTrue(null) ? simplifiedRight : simplifiedLeft;
+        }
+        if (simplifiedLeft == left && simplifiedRight == right) {
+            return this;
+        }
+        return new OrExpression((LogicalExpression) simplifiedLeft, (LogicalExpression) simplifiedRight);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiledLeft = left.compile(sampleRecord);
+        Expression compiledRight = right.compile(sampleRecord);
+        if (compiledLeft == left && compiledRight == right) {
+            return this;
+        }
+        return new OrExpression((LogicalExpression) compiledLeft, (LogicalExpression) compiledRight);
     }
 
     public String toString() {
@@ -921,8 +2368,41 @@ class AndExpression extends LogicalExpression {
         this.right = right;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        return left.isTrue(env) && right.isTrue(env);
+    public boolean isTrue(Object[] row) {
+        return left.isTrue(row) && right.isTrue(row);
+    }
+
+    public void resolve(RowLayout layout) {
+        left.resolve(layout);
+        right.resolve(layout);
+    }
+
+    /**
+     * Remove operands that are always true, or replace the condition by
+     * an operand that is always false.
+     */
+    public Expression simplify() {
+        Expression simplifiedLeft = left.simplify();
+        Expression simplifiedRight = right.simplify();
+        if (simplifiedLeft.isConstant()) {
+            return simplifiedLeft.isTrue(null) ? simplifiedRight : simplifiedLeft;
+        }
+        if (simplifiedRight.isConstant()) {
+            return simplifiedRight.isTrue(null) ? simplifiedLeft : simplifiedRight;
+        }
+        if (simplifiedLeft == left && simplifiedRight == right) {
+            return this;
+        }
+        return new AndExpression((LogicalExpression) simplifiedLeft, (LogicalExpression) simplifiedRight);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiledLeft = left.compile(sampleRecord);
+        Expression compiledRight = right.compile(sampleRecord);
+        if (compiledLeft == left && compiledRight == right) {
+            return this;
+        }
+        return new AndExpression((LogicalExpression) compiledLeft, (LogicalExpression) compiledRight);
     }
 
     public String toString() {
@@ -946,80 +2426,327 @@ class AndExpression extends LogicalExpression {
 
 class RelopExpression extends LogicalExpression {
 
+    private static final int OP_EQ = 1;
+    private static final int OP_NE = 2;
+    private static final int OP_GT = 3;
+    private static final int OP_LT = 4;
+    private static final int OP_LE = 5;
+    private static final int OP_GE = 6;
+
     String op;
+    int opCode;
     Expression left, right;
+    StringConverter converter;
 
     public RelopExpression(String op, Expression left, Expression right) {
         this.op = op;
         this.left = left;
         this.right = right;
+        if (op.equals("=")) {
+            opCode = OP_EQ;
+        } else if (op.equals("<>") || op.equals("!=")) {
+            opCode = OP_NE;
+        } else if (op.equals(">")) {
+            opCode = OP_GT;
+        } else if (op.equals("<")) {
+            opCode = OP_LT;
+        } else if (op.equals("<=") || op.equals("=<")) {
+            opCode = OP_LE;
+        } else if (op.equals(">=") || op.equals("=>")) {
+            opCode = OP_GE;
+        }
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        Comparable leftValue = (Comparable) left.eval(env);
-        Comparable rightValue = (Comparable) right.eval(env);
-        boolean result = false;
-        Integer leftComparedToRightObj = null;
+    public boolean isTrue(Object[] row) {
+        return compare(left.eval(row), right.eval(row));
+    }
+
+    /**
+     * Compare the values of both operands, converting them to a common type
+     * if they have different types.
+     */
+    boolean compare(Object leftEval, Object rightEval) {
+        Comparable leftValue = (Comparable) leftEval;
+        Comparable rightValue = (Comparable) rightEval;
+        boolean compared = false;
+        int leftComparedToRight = 0;
         try {
-            leftComparedToRightObj = new Integer(leftValue.compareTo(rightValue));
+            leftComparedToRight = leftValue.compareTo(rightValue);
+            compared = true;
         } catch (ClassCastException e) {
         }
         try {
-            if (leftComparedToRightObj == null && leftValue instanceof Date) {
-                Expression stringConverter = new ColumnName("@StringConverter");
-                StringConverter sc = (StringConverter) stringConverter.eval(env);
-                Date date = sc.parseDate(rightValue.toString());
-                leftComparedToRightObj = new Integer(leftValue.compareTo(date));
-            } else if (leftComparedToRightObj == null && rightValue instanceof Date) {
-                Expression stringConverter = new ColumnName("@StringConverter");
-                StringConverter sc = (StringConverter) stringConverter.eval(env);
-                Date date = sc.parseDate(leftValue.toString());
-                leftComparedToRightObj = new Integer(date.compareTo((Date) rightValue));
+            if (!compared && leftValue instanceof Date) {
+                Date date = converter.parseDate(rightValue.toString());
+                leftComparedToRight = leftValue.compareTo(date);
+                compared = true;
+            } else if (!compared && rightValue instanceof Date) {
+                Date date = converter.parseDate(leftValue.toString());
+                leftComparedToRight = date.compareTo((Date) rightValue);
+                compared = true;
             } else {
-                Double leftDouble = new Double(((Number) leftValue).toString());
-                Double rightDouble = new Double(((Number) rightValue).toString());
-                leftComparedToRightObj = new Integer(leftDouble.compareTo(rightDouble));
+                double leftDouble = Double.parseDouble(((Number) leftValue).toString());
+                double rightDouble = Double.parseDouble(((Number) rightValue).toString());
+                leftComparedToRight = Double.compare(leftDouble, rightDouble);
+                compared = true;
             }
         } catch (ClassCastException e) {
         } catch (NumberFormatException e) {
         }
-        if (leftComparedToRightObj != null) {
-            int leftComparedToRight = leftComparedToRightObj.intValue();
-            if (leftValue != null && rightValue != null) {
-                if (op.equals("=")) {
-                    result = leftComparedToRight == 0;
-                } else if (op.equals("<>") || op.equals("!=")) {
-                    result = leftComparedToRight != 0;
-                } else if (op.equals(">")) {
-                    result = leftComparedToRight > 0;
-                } else if (op.equals("<")) {
-                    result = leftComparedToRight < 0;
-                } else if (op.equals("<=") || op.equals("=<")) {
-                    result = leftComparedToRight <= 0;
-                } else if (op.equals(">=") || op.equals("=>")) {
-                    result = leftComparedToRight >= 0;
-                }
+        return compared && leftValue != null && rightValue != null && matches(leftComparedToRight);
+    }
+
+    /**
+     * @param leftComparedToRight negative, zero or positive as the left
+     *                            operand is less than, equal to or greater
+     *                            than the right operand.
+     * @return true if the comparison satisfies the operator.
+     */
+    boolean matches(int leftComparedToRight) {
+        switch (opCode) {
+            case OP_EQ:
+                return leftComparedToRight == 0;
+            case OP_NE:
+                return leftComparedToRight != 0;
+            case OP_GT:
+                return leftComparedToRight > 0;
+            case OP_LT:
+                return leftComparedToRight < 0;
+            case OP_LE:
+                return leftComparedToRight <= 0;
+            case OP_GE:
+                return leftComparedToRight >= 0;
+            default:
+                return false;
+        }
+    }
+
+    public void resolve(RowLayout layout) {
+        converter = layout.getConverter();
+        left.resolve(layout);
+        right.resolve(layout);
+    }
+
+    /**
+     * Fold a comparison of constants, and otherwise move a constant operand
+     * to the right of the operator.
+     */
+    public Expression simplify() {
+        Expression simplifiedLeft = left.simplify();
+        Expression simplifiedRight = right.simplify();
+        RelopExpression relop = this;
+        if (simplifiedLeft.isConstant() && !simplifiedRight.isConstant()) {
+            relop = new RelopExpression(getReversedOp(op), simplifiedRight, simplifiedLeft);
+            relop.converter = converter;
+        } else if (simplifiedLeft != left || simplifiedRight != right) {
+            relop = new RelopExpression(op, simplifiedLeft, simplifiedRight);
+            relop.converter = converter;
+        }
+        if (simplifiedLeft.isConstant() && simplifiedRight.isConstant()) {
+            return foldPredicate(relop);
+        }
+        return relop;
+    }
+
+    /**
+     * @return operator comparing the operands in the reverse order.
+     */
+    static String getReversedOp(String op) {
+        if (op.equals(">")) {
+            return "<";
+        } else if (op.equals("<")) {
+            return ">";
+        } else if (op.equals("<=") || op.equals("=<")) {
+            return ">=";
+        } else if (op.equals(">=") || op.equals("=>")) {
+            return "<=";
+        }
+        return op;
+    }
+
+    /**
+     * Compile into a comparison specialized for the types of both operands,
+     * with a date string compared to dates parsed only once.
+     */
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiledLeft = left.compile(sampleRecord);
+        Expression compiledRight = right.compile(sampleRecord);
+        RelopExpression relop = this;
+        if (compiledLeft != left || compiledRight != right) {
+            relop = new RelopExpression(op, compiledLeft, compiledRight);
+            relop.converter = converter;
+        }
+        Object leftValue = evalSample(compiledLeft, sampleRecord);
+        Object rightValue = evalSample(compiledRight, sampleRecord);
+        if (leftValue instanceof Number && rightValue instanceof Number) {
+            return new NumericComparison(relop);
+        } else if (leftValue instanceof String && rightValue instanceof String) {
+            return new StringComparison(relop);
+        } else if (leftValue instanceof Date && rightValue instanceof Date) {
+            return new DateComparison(relop, null, null);
+        } else if (leftValue instanceof Date && compiledRight instanceof StringConstant) {
+            Date date = converter.parseDate(((StringConstant) compiledRight).value);
+            if (date != null) {
+                return new DateComparison(relop, null, date);
+            }
+        } else if (rightValue instanceof Date && compiledLeft instanceof StringConstant) {
+            Date date = converter.parseDate(((StringConstant) compiledLeft).value);
+            if (date != null) {
+                return new DateComparison(relop, date, null);
+            }
+        }
+        return relop;
+    }
+
+    public String toString() {
+        return op + " " + left + " " + right;
+    }
+
+    public List<String> usedColumns() {
+        List<String> result = new LinkedList<String>();
+        result.addAll(left.usedColumns());
+        result.addAll(right.usedColumns());
+        return result;
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        List<AggregateFunction> result = new LinkedList<AggregateFunction>();
+        result.addAll(left.aggregateFunctions());
+        result.addAll(right.aggregateFunctions());
+        return result;
+    }
+}
+
+/**
+ * Comparison of numbers, as longs if both are integers and otherwise as
+ * doubles, without boxing. Operands of other types are left to the
+ * comparison being compiled.
+ */
+class NumericComparison extends LogicalExpression {
+
+    RelopExpression relop;
+
+    public NumericComparison(RelopExpression relop) {
+        this.relop = relop;
+    }
+
+    public boolean isTrue(Object[] row) {
+        Object leftEval = relop.left.eval(row);
+        Object rightEval = relop.right.eval(row);
+        if (AggregateFunction.isIntegral(leftEval) && AggregateFunction.isIntegral(rightEval)) {
+            long a = ((Number) leftEval).longValue();
+            long b = ((Number) rightEval).longValue();
+            return relop.matches((a < b) ? -1 : ((a == b) ? 0 : 1));
+        }
+        if (leftEval instanceof Number && rightEval instanceof Number) {
+            try {
+                return relop.matches(Double.compare(toDouble((Number) leftEval), toDouble((Number) rightEval)));
+            } catch (NumberFormatException e) {
             }
         }
-        return result;
+        return relop.compare(leftEval, rightEval);
+    }
+
+    /**
+     * @return number as a double, with the value of its string as the
+     * comparison of numbers of different types has always used.
+     */
+    static double toDouble(Number number) {
+        if (number instanceof Double || AggregateFunction.isIntegral(number)) {
+            return number.doubleValue();
+        }
+        return Double.parseDouble(number.toString());
+    }
+
+    public String toString() {
+        return relop.toString();
+    }
+
+    public List<String> usedColumns() {
+        return relop.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return relop.aggregateFunctions();
+    }
+}
+
+/**
+ * Comparison of strings.
+ */
+class StringComparison extends LogicalExpression {
+
+    RelopExpression relop;
+
+    public StringComparison(RelopExpression relop) {
+        this.relop = relop;
+    }
+
+    public boolean isTrue(Object[] row) {
+        Object leftEval = relop.left.eval(row);
+        Object rightEval = relop.right.eval(row);
+        if (leftEval instanceof String && rightEval instanceof String) {
+            return relop.matches(((String) leftEval).compareTo((String) rightEval));
+        }
+        return relop.compare(leftEval, rightEval);
+    }
+
+    public String toString() {
+        return relop.toString();
+    }
+
+    public List<String> usedColumns() {
+        return relop.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return relop.aggregateFunctions();
+    }
+}
+
+/**
+ * Comparison of dates by their times. A date string compared to dates is
+ * parsed once, instead of for every row.
+ */
+class DateComparison extends LogicalExpression {
+
+    RelopExpression relop;
+    Date leftDate, rightDate;
+
+    /**
+     * @param relop     comparison being compiled.
+     * @param leftDate  date parsed from the left operand if it is a string
+     *                  constant, or null to evaluate the left operand.
+     * @param rightDate date parsed from the right operand if it is a string
+     *                  constant, or null to evaluate the right operand.
+     */
+    public DateComparison(RelopExpression relop, Date leftDate, Date rightDate) {
+        this.relop = relop;
+        this.leftDate = leftDate;
+        this.rightDate = rightDate;
+    }
+
+    public boolean isTrue(Object[] row) {
+        Object leftEval = (leftDate != null) ? leftDate : relop.left.eval(row);
+        Object rightEval = (rightDate != null) ? rightDate : relop.right.eval(row);
+        if (leftEval instanceof Date && rightEval instanceof Date) {
+            long a = ((Date) leftEval).getTime();
+            long b = ((Date) rightEval).getTime();
+            return relop.matches((a < b) ? -1 : ((a == b) ? 0 : 1));
+        }
+        return relop.isTrue(row);
     }
 
     public String toString() {
-        return op + " " + left + " " + right;
+        return relop.toString();
     }
 
     public List<String> usedColumns() {
-        List<String> result = new LinkedList<String>();
-        result.addAll(left.usedColumns());
-        result.addAll(right.usedColumns());
-        return result;
+        return relop.usedColumns();
     }
 
     public List<AggregateFunction> aggregateFunctions() {
-        List<AggregateFunction> result = new LinkedList<AggregateFunction>();
-        result.addAll(left.aggregateFunctions());
-        result.addAll(right.aggregateFunctions());
-        return result;
+        return relop.aggregateFunctions();
     }
 }
 
@@ -1033,10 +2760,10 @@ class BetweenExpression extends LogicalExpression {
         this.right = right;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        Comparable leftValue = (Comparable) left.eval(env);
-        Comparable rightValue = (Comparable) right.eval(env);
-        Comparable objValue = (Comparable) obj.eval(env);
+    public boolean isTrue(Object[] row) {
+        Comparable leftValue = (Comparable) left.eval(row);
+        Comparable rightValue = (Comparable) right.eval(row);
+        Comparable objValue = (Comparable) obj.eval(row);
         boolean result = true;
         try {
             if (objValue.compareTo(leftValue) < 0) {
@@ -1050,6 +2777,36 @@ class BetweenExpression extends LogicalExpression {
         return result;
     }
 
+    public void resolve(RowLayout layout) {
+        obj.resolve(layout);
+        left.resolve(layout);
+        right.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplifiedObj = obj.simplify();
+        Expression simplifiedLeft = left.simplify();
+        Expression simplifiedRight = right.simplify();
+        BetweenExpression between = this;
+        if (simplifiedObj != obj || simplifiedLeft != left || simplifiedRight != right) {
+            between = new BetweenExpression(simplifiedObj, simplifiedLeft, simplifiedRight);
+        }
+        if (simplifiedObj.isConstant() && simplifiedLeft.isConstant() && simplifiedRight.isConstant()) {
+            return foldPredicate(between);
+        }
+        return between;
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiledObj = obj.compile(sampleRecord);
+        Expression compiledLeft = left.compile(sampleRecord);
+        Expression compiledRight = right.compile(sampleRecord);
+        if (compiledObj == obj && compiledLeft == left && compiledRight == right) {
+            return this;
+        }
+        return new BetweenExpression(compiledObj, compiledLeft, compiledRight);
+    }
+
     public String toString() {
         return "B " + obj + " " + left + " " + right;
     }
@@ -1079,11 +2836,28 @@ class IsNullExpression extends LogicalExpression {
         this.arg = arg;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        Object o = arg.eval(env);
+    public boolean isTrue(Object[] row) {
+        Object o = arg.eval(row);
         return (o == null);
     }
 
+    public void resolve(RowLayout layout) {
+        arg.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified = arg.simplify();
+        if (simplified.isConstant()) {
+            return foldPredicate(new IsNullExpression(simplified));
+        }
+        return (simplified == arg) ? this : new IsNullExpression(simplified);
+    }
+
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled = arg.compile(sampleRecord);
+        return (compiled == arg) ? this : new IsNullExpression(compiled);
+    }
+
     public String toString() {
         return "N " + arg;
     }
@@ -1110,9 +2884,9 @@ class LikeExpression extends LogicalExpression {
         this.arg2 = arg2;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
-        Object left = arg1.eval(env);
-        Object right = arg2.eval(env);
+    public boolean isTrue(Object[] row) {
+        Object left = arg1.eval(row);
+        Object right = arg2.eval(row);
         boolean result = false;
         if (left != null && right != null) {
             result = LikePattern.matches(right.toString(), left.toString());
@@ -1120,6 +2894,39 @@ class LikeExpression extends LogicalExpression {
         return result;
     }
 
+    public void resolve(RowLayout layout) {
+        arg1.resolve(layout);
+        arg2.resolve(layout);
+    }
+
+    public Expression simplify() {
+        Expression simplified1 = arg1.simplify();
+        Expression simplified2 = arg2.simplify();
+        LikeExpression like = this;
+        if (simplified1 != arg1 || simplified2 != arg2) {
+            like = new LikeExpression(simplified1, simplified2);
+        }
+        if (simplified1.isConstant() && simplified2.isConstant()) {
+            return foldPredicate(like);
+        }
+        return like;
+    }
+
+    /**
+     * Compile the LIKE pattern only once if it is a constant.
+     */
+    public Expression compile(Object[] sampleRecord) {
+        Expression compiled1 = arg1.compile(sampleRecord);
+        Expression compiled2 = arg2.compile(sampleRecord);
+        if (compiled2 instanceof StringConstant) {
+            return new ConstantLikeExpression(this, compiled1, ((StringConstant) compiled2).value);
+        }
+        if (compiled1 == arg1 && compiled2 == arg2) {
+            return this;
+        }
+        return new LikeExpression(compiled1, compiled2);
+    }
+
     public String toString() {
         return "L " + arg1 + " " + arg2;
     }
@@ -1139,6 +2946,47 @@ class LikeExpression extends LogicalExpression {
     }
 }
 
+/**
+ * LIKE with a constant pattern, converted to a regular expression once.
+ */
+class ConstantLikeExpression extends LogicalExpression {
+
+    LikeExpression like;
+    Expression arg;
+    String likePattern;
+    Pattern pattern;
+
+    public ConstantLikeExpression(LikeExpression like, Expression arg, String likePattern) {
+        this.like = like;
+        this.arg = arg;
+        this.likePattern = likePattern;
+        this.pattern = LikePattern.compile(likePattern);
+    }
+
+    public boolean isTrue(Object[] row) {
+        Object value = arg.eval(row);
+        if (value == null) {
+            return false;
+        }
+        if (pattern == null) {
+            return likePattern.equals(value.toString());
+        }
+        return pattern.matcher(value.toString()).matches();
+    }
+
+    public String toString() {
+        return like.toString();
+    }
+
+    public List<String> usedColumns() {
+        return like.usedColumns();
+    }
+
+    public List<AggregateFunction> aggregateFunctions() {
+        return like.aggregateFunctions();
+    }
+}
+
 class AsteriskExpression extends LogicalExpression {
 
     String expression;
@@ -1147,7 +2995,7 @@ class AsteriskExpression extends LogicalExpression {
         this.expression = expression;
     }
 
-    public boolean isTrue(Map<String, Object> env) {
+    public boolean isTrue(Object[] row) {
         return false;
     }
 
@@ -1239,8 +3087,8 @@ public class ExpressionParser implements ExpressionParserConstants {
         offset = parsedStatement.offset;
     }
 
-    public Object eval(Map<String, Object> env) {
-        return content.eval(env);
+    public Object eval(Object[] row) {
+        return content.eval(row);
     }
 
     public String toString() {
@@ -1256,6 +3104,41 @@ public class ExpressionParser implements ExpressionParserConstants {
         return currentDate;
     }
 
+    Expression createFunction(String name, List<Expression> args) throws ParseException {
+        if (name.equalsIgnoreCase("APPROX_COUNT_DISTINCT") && args.size() == 1) {
+            return new SQLApproxCountDistinctFunction(args.get(0));
+        }
+        if (name.equalsIgnoreCase("APPROX_PERCENTILE") && args.size() == 2) {
+            Expression fraction = args.get(1);
+            if (!(fraction instanceof NumericConstant)
+                    || ((NumericConstant) fraction).value.doubleValue() < 0
+                    || ((NumericConstant) fraction).value.doubleValue() > 1) {
+                throw new ParseException("Percentile must be a number from 0 to 1: " + fraction);
+            }
+            return new SQLApproxPercentileFunction(args.get(0), ((NumericConstant) fraction).value.doubleValue());
+        }
+        if (name.equalsIgnoreCase("MEDIAN") && args.size() == 1) {
+            return new SQLMedianFunction(args.get(0));
+        }
+        if ((name.equalsIgnoreCase("VARIANCE") || name.equalsIgnoreCase("VAR_SAMP")) && args.size() == 1) {
+            return new SQLVarianceFunction(args.get(0), name.toUpperCase(), true, false);
+        }
+        if (name.equalsIgnoreCase("VAR_POP") && args.size() == 1) {
+            return new SQLVarianceFunction(args.get(0), name.toUpperCase(), false, false);
+        }
+        if ((name.equalsIgnoreCase("STDDEV") || name.equalsIgnoreCase("STDDEV_SAMP")) && args.size() == 1) {
+            return new SQLVarianceFunction(args.get(0), name.toUpperCase(), true, true);
+        }
+        if (name.equalsIgnoreCase("STDDEV_POP") && args.size() == 1) {
+            return new SQLVarianceFunction(args.get(0), name.toUpperCase(), false, true);
+        }
+        if ((name.equalsIgnoreCase("COVAR_SAMP") || name.equalsIgnoreCase("COVAR_POP")) && args.size() == 2) {
+            return new SQLCovarianceFunction(args.get(0), args.get(1), name.toUpperCase(),
+                    name.equalsIgnoreCase("COVAR_SAMP"));
+        }
+        throw new ParseException("Unknown function: " + name + " with " + args.size() + " arguments");
+    }
+
     final public ParsedExpression logicalExpression() throws ParseException {
         LogicalExpression left;
         left = logicalOrExpression();
@@ -1269,11 +3152,170 @@ public class ExpressionParser implements ExpressionParserConstants {
 
     final public ParsedExpression groupByEntry() throws ParseException {
         Expression left;
-        left = binaryOperation();
-        {
-            if (true) {
-                return new ParsedExpression(left);
+        List<Expression> set;
+        List<List<Expression>> sets;
+        Token t;
+        if (getToken(1).kind == NAME && getToken(2).kind == OPENPARENTHESIS
+                && (getToken(1).image.equalsIgnoreCase("ROLLUP") || getToken(1).image.equalsIgnoreCase("CUBE"))) {
+            t = jj_consume_token(NAME);
+            jj_consume_token(OPENPARENTHESIS);
+            set = functionArguments();
+            jj_consume_token(CLOSEPARENTHESIS);
+            if (t.image.equalsIgnoreCase("ROLLUP")) {
+                {
+                    if (true) {
+                        return new ParsedExpression(GroupingSets.rollup(set));
+                    }
+                }
+            }
+            {
+                if (true) {
+                    return new ParsedExpression(GroupingSets.cube(set));
+                }
+            }
+        } else if (getToken(1).kind == NAME && getToken(1).image.equalsIgnoreCase("GROUPING")
+                && getToken(2).kind == NAME && getToken(2).image.equalsIgnoreCase("SETS")) {
+            jj_consume_token(NAME);
+            jj_consume_token(NAME);
+            jj_consume_token(OPENPARENTHESIS);
+            set = groupingSet();
+            sets = new ArrayList<List<Expression>>();
+            sets.add(set);
+            label_1:
+            while (true) {
+                switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                    case COMMA:
+                        ;
+                        break;
+                    default:
+                        jj_la1[0] = jj_gen;
+                        break label_1;
+                }
+                jj_consume_token(COMMA);
+                set = groupingSet();
+                sets.add(set);
+            }
+            jj_consume_token(CLOSEPARENTHESIS);
+            {
+                if (true) {
+                    return new ParsedExpression(new GroupingSets(sets));
+                }
+            }
+        } else {
+            switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                case UNSIGNEDINT:
+                case UNSIGNEDNUMBER:
+                case NULL:
+                case CURRENT_DATE:
+                case PLACEHOLDER:
+                case LOWER:
+                case ROUND:
+                case UPPER:
+                case COUNT:
+                case MAX:
+                case MIN:
+                case SUM:
+                case AVG:
+                case NAME:
+                case STRING:
+                case MINUS:
+                case OPENPARENTHESIS:
+                    left = binaryOperation();
+                {
+                    if (true) {
+                        return new ParsedExpression(left);
+                    }
+                }
+                break;
+                default:
+                    jj_la1[1] = jj_gen;
+                    jj_consume_token(-1);
+                    throw new ParseException();
+            }
+        }
+        throw new Error("Missing return statement in function");
+    }
+
+    final public List<Expression> groupingSet() throws ParseException {
+        List<Expression> set = new ArrayList<Expression>();
+        Expression arg;
+        switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+            case OPENPARENTHESIS:
+                jj_consume_token(OPENPARENTHESIS);
+                switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                    case UNSIGNEDINT:
+                    case UNSIGNEDNUMBER:
+                    case NULL:
+                    case CURRENT_DATE:
+                    case PLACEHOLDER:
+                    case LOWER:
+                    case ROUND:
+                    case UPPER:
+                    case COUNT:
+                    case MAX:
+                    case MIN:
+                    case SUM:
+                    case AVG:
+                    case NAME:
+                    case STRING:
+                    case MINUS:
+                    case OPENPARENTHESIS:
+                        arg = binaryOperation();
+                        set.add(arg);
+                        label_2:
+                        while (true) {
+                            switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                                case COMMA:
+                                    ;
+                                    break;
+                                default:
+                                    jj_la1[2] = jj_gen;
+                                    break label_2;
+                            }
+                            jj_consume_token(COMMA);
+                            arg = binaryOperation();
+                            set.add(arg);
+                        }
+                        break;
+                    default:
+                        jj_la1[3] = jj_gen;
+                        ;
+                }
+                jj_consume_token(CLOSEPARENTHESIS);
+            {
+                if (true) {
+                    return set;
+                }
+            }
+            break;
+            case UNSIGNEDINT:
+            case UNSIGNEDNUMBER:
+            case NULL:
+            case CURRENT_DATE:
+            case PLACEHOLDER:
+            case LOWER:
+            case ROUND:
+            case UPPER:
+            case COUNT:
+            case MAX:
+            case MIN:
+            case SUM:
+            case AVG:
+            case NAME:
+            case STRING:
+            case MINUS:
+                arg = binaryOperation();
+                set.add(arg);
+            {
+                if (true) {
+                    return set;
+                }
             }
+            break;
+            default:
+                jj_la1[4] = jj_gen;
+                jj_consume_token(-1);
+                throw new ParseException();
         }
         throw new Error("Missing return statement in function");
     }
@@ -1297,13 +3339,13 @@ public class ExpressionParser implements ExpressionParserConstants {
                         order = t.image;
                         break;
                     default:
-                        jj_la1[0] = jj_gen;
+                        jj_la1[5] = jj_gen;
                         jj_consume_token(-1);
                         throw new ParseException();
                 }
                 break;
             default:
-                jj_la1[1] = jj_gen;
+                jj_la1[6] = jj_gen;
                 ;
         }
         {
@@ -1343,20 +3385,20 @@ public class ExpressionParser implements ExpressionParserConstants {
                 isDistinct = true;
                 break;
             default:
-                jj_la1[2] = jj_gen;
+                jj_la1[7] = jj_gen;
                 ;
         }
         expr = queryEnvEntry();
         result.add(expr);
-        label_1:
+        label_3:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case COMMA:
                     ;
                     break;
                 default:
-                    jj_la1[3] = jj_gen;
-                    break label_1;
+                    jj_la1[8] = jj_gen;
+                    break label_3;
             }
             jj_consume_token(COMMA);
             expr = queryEnvEntry();
@@ -1373,7 +3415,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                         t = jj_consume_token(TABLENAME);
                         break;
                     default:
-                        jj_la1[4] = jj_gen;
+                        jj_la1[9] = jj_gen;
                         jj_consume_token(-1);
                         throw new ParseException();
                 }
@@ -1386,14 +3428,14 @@ public class ExpressionParser implements ExpressionParserConstants {
                                 jj_consume_token(AS);
                                 break;
                             default:
-                                jj_la1[5] = jj_gen;
+                                jj_la1[10] = jj_gen;
                                 ;
                         }
                         t = jj_consume_token(NAME);
                         tableAlias = t.image.toUpperCase();
                         break;
                     default:
-                        jj_la1[6] = jj_gen;
+                        jj_la1[11] = jj_gen;
                         ;
                 }
                 switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -1402,7 +3444,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                         whereClause = logicalExpression();
                         break;
                     default:
-                        jj_la1[7] = jj_gen;
+                        jj_la1[12] = jj_gen;
                         ;
                 }
                 switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -1411,15 +3453,15 @@ public class ExpressionParser implements ExpressionParserConstants {
                         jj_consume_token(BY);
                         entry = groupByEntry();
                         groupByEntries.add(entry);
-                        label_2:
+                        label_4:
                         while (true) {
                             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                                 case COMMA:
                                     ;
                                     break;
                                 default:
-                                    jj_la1[8] = jj_gen;
-                                    break label_2;
+                                    jj_la1[13] = jj_gen;
+                                    break label_4;
                             }
                             jj_consume_token(COMMA);
                             entry = groupByEntry();
@@ -1431,12 +3473,12 @@ public class ExpressionParser implements ExpressionParserConstants {
                                 havingClause = logicalExpression();
                                 break;
                             default:
-                                jj_la1[9] = jj_gen;
+                                jj_la1[14] = jj_gen;
                                 ;
                         }
                         break;
                     default:
-                        jj_la1[10] = jj_gen;
+                        jj_la1[15] = jj_gen;
                         ;
                 }
                 switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -1445,15 +3487,15 @@ public class ExpressionParser implements ExpressionParserConstants {
                         jj_consume_token(BY);
                         entry = orderByEntry();
                         orderByEntries.add(entry);
-                        label_3:
+                        label_5:
                         while (true) {
                             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                                 case COMMA:
                                     ;
                                     break;
                                 default:
-                                    jj_la1[11] = jj_gen;
-                                    break label_3;
+                                    jj_la1[16] = jj_gen;
+                                    break label_5;
                             }
                             jj_consume_token(COMMA);
                             entry = orderByEntry();
@@ -1461,7 +3503,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                         }
                         break;
                     default:
-                        jj_la1[12] = jj_gen;
+                        jj_la1[17] = jj_gen;
                         ;
                 }
                 switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -1476,17 +3518,17 @@ public class ExpressionParser implements ExpressionParserConstants {
                                 offset = Integer.parseInt(t.image);
                                 break;
                             default:
-                                jj_la1[13] = jj_gen;
+                                jj_la1[18] = jj_gen;
                                 ;
                         }
                         break;
                     default:
-                        jj_la1[14] = jj_gen;
+                        jj_la1[19] = jj_gen;
                         ;
                 }
                 break;
             default:
-                jj_la1[15] = jj_gen;
+                jj_la1[20] = jj_gen;
                 ;
         }
         switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -1494,7 +3536,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 jj_consume_token(SEMICOLON);
                 break;
             default:
-                jj_la1[16] = jj_gen;
+                jj_la1[21] = jj_gen;
                 ;
         }
         jj_consume_token(0);
@@ -1545,13 +3587,13 @@ public class ExpressionParser implements ExpressionParserConstants {
                                 jj_consume_token(AS);
                                 break;
                             default:
-                                jj_la1[17] = jj_gen;
+                                jj_la1[22] = jj_gen;
                                 ;
                         }
                         alias = columnAlias();
                         break;
                     default:
-                        jj_la1[18] = jj_gen;
+                        jj_la1[23] = jj_gen;
                         ;
                 }
                 if (alias != null) {
@@ -1577,7 +3619,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                         t = jj_consume_token(NAMEASTERISK);
                         break;
                     default:
-                        jj_la1[19] = jj_gen;
+                        jj_la1[24] = jj_gen;
                         jj_consume_token(-1);
                         throw new ParseException();
                 }
@@ -1589,7 +3631,7 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             default:
-                jj_la1[20] = jj_gen;
+                jj_la1[25] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1599,15 +3641,15 @@ public class ExpressionParser implements ExpressionParserConstants {
     final public LogicalExpression logicalOrExpression() throws ParseException {
         LogicalExpression left, right;
         left = logicalAndExpression();
-        label_4:
+        label_6:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case OR:
                     ;
                     break;
                 default:
-                    jj_la1[21] = jj_gen;
-                    break label_4;
+                    jj_la1[26] = jj_gen;
+                    break label_6;
             }
             jj_consume_token(OR);
             right = logicalAndExpression();
@@ -1624,15 +3666,15 @@ public class ExpressionParser implements ExpressionParserConstants {
     final public LogicalExpression logicalAndExpression() throws ParseException {
         LogicalExpression left, right;
         left = logicalUnaryExpression();
-        label_5:
+        label_7:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case AND:
                     ;
                     break;
                 default:
-                    jj_la1[22] = jj_gen;
-                    break label_5;
+                    jj_la1[27] = jj_gen;
+                    break label_7;
             }
             jj_consume_token(AND);
             right = logicalUnaryExpression();
@@ -1692,7 +3734,7 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             default:
-                jj_la1[23] = jj_gen;
+                jj_la1[28] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1744,7 +3786,7 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             default:
-                jj_la1[24] = jj_gen;
+                jj_la1[29] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1772,7 +3814,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 t = jj_consume_token(MINUS);
                 break;
             default:
-                jj_la1[25] = jj_gen;
+                jj_la1[30] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1794,7 +3836,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 t = jj_consume_token(DIVIDE);
                 break;
             default:
-                jj_la1[26] = jj_gen;
+                jj_la1[31] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1843,7 +3885,7 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             default:
-                jj_la1[27] = jj_gen;
+                jj_la1[32] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -1854,7 +3896,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         Expression left, right;
         char op;
         left = multiplyOperation();
-        label_6:
+        label_8:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case MINUS:
@@ -1862,8 +3904,8 @@ public class ExpressionParser implements ExpressionParserConstants {
                     ;
                     break;
                 default:
-                    jj_la1[28] = jj_gen;
-                    break label_6;
+                    jj_la1[33] = jj_gen;
+                    break label_8;
             }
             op = binAddOp();
             right = multiplyOperation();
@@ -1881,7 +3923,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         Expression left, right;
         char op;
         left = simpleExpression();
-        label_7:
+        label_9:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case ASTERISK:
@@ -1889,8 +3931,8 @@ public class ExpressionParser implements ExpressionParserConstants {
                     ;
                     break;
                 default:
-                    jj_la1[29] = jj_gen;
-                    break label_7;
+                    jj_la1[34] = jj_gen;
+                    break label_9;
             }
             op = binMultiplyOp();
             right = simpleExpression();
@@ -1906,6 +3948,8 @@ public class ExpressionParser implements ExpressionParserConstants {
 
     final public Expression simpleExpression() throws ParseException {
         Expression arg;
+        List<Expression> args;
+        Token t;
         switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
             case OPENPARENTHESIS:
                 jj_consume_token(OPENPARENTHESIS);
@@ -1953,14 +3997,49 @@ public class ExpressionParser implements ExpressionParserConstants {
             case COUNT:
                 jj_consume_token(COUNT);
                 jj_consume_token(OPENPARENTHESIS);
-                arg = countOperation();
-                jj_consume_token(CLOSEPARENTHESIS);
-            {
-                if (true) {
-                    return new SQLCountFunction(arg);
+                switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                    case DISTINCT:
+                        jj_consume_token(DISTINCT);
+                        arg = binaryOperation();
+                        jj_consume_token(CLOSEPARENTHESIS);
+                    {
+                        if (true) {
+                            return new SQLCountDistinctFunction(arg);
+                        }
+                    }
+                    break;
+                    case UNSIGNEDINT:
+                    case UNSIGNEDNUMBER:
+                    case NULL:
+                    case CURRENT_DATE:
+                    case PLACEHOLDER:
+                    case LOWER:
+                    case ROUND:
+                    case UPPER:
+                    case COUNT:
+                    case MAX:
+                    case MIN:
+                    case SUM:
+                    case AVG:
+                    case NAME:
+                    case STRING:
+                    case ASTERISK:
+                    case MINUS:
+                    case OPENPARENTHESIS:
+                        arg = countOperation();
+                        jj_consume_token(CLOSEPARENTHESIS);
+                    {
+                        if (true) {
+                            return new SQLCountFunction(arg);
+                        }
+                    }
+                    break;
+                    default:
+                        jj_la1[35] = jj_gen;
+                        jj_consume_token(-1);
+                        throw new ParseException();
                 }
-            }
-            break;
+                break;
             case MAX:
                 jj_consume_token(MAX);
                 jj_consume_token(OPENPARENTHESIS);
@@ -2006,10 +4085,25 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             case NAME:
-                arg = columnName();
+                t = jj_consume_token(NAME);
+                switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                    case OPENPARENTHESIS:
+                        jj_consume_token(OPENPARENTHESIS);
+                        args = functionArguments();
+                        jj_consume_token(CLOSEPARENTHESIS);
+                    {
+                        if (true) {
+                            return createFunction(t.image, args);
+                        }
+                    }
+                    break;
+                    default:
+                        jj_la1[36] = jj_gen;
+                        ;
+                }
             {
                 if (true) {
-                    return arg;
+                    return new ColumnName(t.image);
                 }
             }
             break;
@@ -2056,13 +4150,40 @@ public class ExpressionParser implements ExpressionParserConstants {
             }
             break;
             default:
-                jj_la1[30] = jj_gen;
+                jj_la1[37] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
         throw new Error("Missing return statement in function");
     }
 
+    final public List<Expression> functionArguments() throws ParseException {
+        List<Expression> args = new ArrayList<Expression>();
+        Expression arg;
+        arg = binaryOperation();
+        args.add(arg);
+        label_10:
+        while (true) {
+            switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
+                case COMMA:
+                    ;
+                    break;
+                default:
+                    jj_la1[38] = jj_gen;
+                    break label_10;
+            }
+            jj_consume_token(COMMA);
+            arg = binaryOperation();
+            args.add(arg);
+        }
+        {
+            if (true) {
+                return args;
+            }
+        }
+        throw new Error("Missing return statement in function");
+    }
+
     final public Expression columnName() throws ParseException {
         Token t;
         t = jj_consume_token(NAME);
@@ -2085,7 +4206,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 sign = t.image;
                 break;
             default:
-                jj_la1[31] = jj_gen;
+                jj_la1[39] = jj_gen;
                 ;
         }
         switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
@@ -2096,7 +4217,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 t = jj_consume_token(UNSIGNEDINT);
                 break;
             default:
-                jj_la1[32] = jj_gen;
+                jj_la1[40] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -2126,15 +4247,15 @@ public class ExpressionParser implements ExpressionParserConstants {
     final public Expression stringConstant() throws ParseException {
         String left, right;
         left = stringConstantAtom();
-        label_8:
+        label_11:
         while (true) {
             switch ((jj_ntk == -1) ? jj_ntk() : jj_ntk) {
                 case STRING:
                     ;
                     break;
                 default:
-                    jj_la1[33] = jj_gen;
-                    break label_8;
+                    jj_la1[41] = jj_gen;
+                    break label_11;
             }
             right = stringConstantAtom();
             left = left + "'" + right;
@@ -2189,7 +4310,7 @@ public class ExpressionParser implements ExpressionParserConstants {
                 t = jj_consume_token(SUM);
                 break;
             default:
-                jj_la1[34] = jj_gen;
+                jj_la1[42] = jj_gen;
                 jj_consume_token(-1);
                 throw new ParseException();
         }
@@ -2216,7 +4337,7 @@ public class ExpressionParser implements ExpressionParserConstants {
     public Token jj_nt;
     private int jj_ntk;
     private int jj_gen;
-    final private int[] jj_la1 = new int[35];
+    final private int[] jj_la1 = new int[43];
     static private int[] jj_la1_0;
     static private int[] jj_la1_1;
 
@@ -2226,11 +4347,11 @@ public class ExpressionParser implements ExpressionParserConstants {
     }
 
     private static void jj_la1_init_0() {
-        jj_la1_0 = new int[]{0x1800000, 0x1800000, 0x40, 0x80, 0x0, 0x80000, 0x80000, 0x0, 0x80, 0x0, 0x0, 0x80, 0x0, 0x0, 0x0, 0x0, 0x0, 0x80000, 0xfe080000, 0x0, 0xfe406300, 0x10000, 0x8000, 0xfe426300, 0x340000, 0x0, 0x0, 0xfe406300, 0x0, 0x0, 0xfe406300, 0x0, 0x300, 0x0, 0xfe000000,};
+        jj_la1_0 = new int[]{0x80, 0xfe406300, 0x80, 0xfe406300, 0xfe406300, 0x1800000, 0x1800000, 0x40, 0x80, 0x0, 0x80000, 0x80000, 0x0, 0x80, 0x0, 0x0, 0x80, 0x0, 0x0, 0x0, 0x0, 0x0, 0x80000, 0xfe080000, 0x0, 0xfe406300, 0x10000, 0x8000, 0xfe426300, 0x340000, 0x0, 0x0, 0xfe406300, 0x0, 0x0, 0xfe406340, 0x0, 0xfe406300, 0x80, 0x0, 0x300, 0x0, 0xfe000000,};
     }
 
     private static void jj_la1_init_1() {
-        jj_la1_1 = new int[]{0x0, 0x0, 0x0, 0x0, 0x3000000, 0x0, 0x200, 0x4, 0x0, 0x40, 0x8, 0x0, 0x10, 0x100, 0x80, 0x2, 0x80000, 0x0, 0x201, 0x3000, 0x27601, 0x0, 0x0, 0x24601, 0x800, 0xc000, 0x11000, 0x25601, 0xc000, 0x11000, 0x24601, 0x4000, 0x0, 0x400, 0x201,};
+        jj_la1_1 = new int[]{0x0, 0x24601, 0x0, 0x24601, 0x24601, 0x0, 0x0, 0x0, 0x0, 0x3000000, 0x0, 0x200, 0x4, 0x0, 0x40, 0x8, 0x0, 0x10, 0x100, 0x80, 0x2, 0x80000, 0x0, 0x201, 0x3000, 0x27601, 0x0, 0x0, 0x24601, 0x800, 0xc000, 0x11000, 0x25601, 0xc000, 0x11000, 0x25601, 0x20000, 0x24601, 0x0, 0x4000, 0x0, 0x400, 0x201,};
     }
 
     /**
@@ -2253,7 +4374,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2278,7 +4399,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2292,7 +4413,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2306,7 +4427,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2319,7 +4440,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2332,7 +4453,7 @@ public class ExpressionParser implements ExpressionParserConstants {
         token = new Token();
         jj_ntk = -1;
         jj_gen = 0;
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             jj_la1[i] = -1;
         }
     }
@@ -2405,7 +4526,7 @@ public class ExpressionParser implements ExpressionParserConstants {
             la1tokens[jj_kind] = true;
             jj_kind = -1;
         }
-        for (int i = 0; i < 35; i++) {
+        for (int i = 0; i < 43; i++) {
             if (jj_la1[i] == jj_gen) {
                 for (int j = 0; j < 32; j++) {
                     if ((jj_la1_0[i] & (1 << j)) != 0) {
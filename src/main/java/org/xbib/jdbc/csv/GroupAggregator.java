@@ -0,0 +1,563 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.xbib.jdbc.csv.support.HashPartitionSpill;
+import org.xbib.jdbc.csv.support.RowSerializer;
+import org.xbib.jdbc.csv.support.TempFiles;
+import org.xbib.jdbc.csv.support.WorkerThreads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hash aggregation of records into groups. Each group keeps the first record
+ * added to it, with an accumulator for each aggregate function in the slot
+ * of that function. Groups are returned in the order of their first record.
+ * Once more than a threshold number of records have been added, the
+ * aggregate function values of each record are passed in batches to several
+ * threads, each aggregating into a table of groups of its own. The tables
+ * are merged when all records have been added.
+ * Aggregate function values are always evaluated in the calling thread, as
+ * expressions are not safe to use from several threads.
+ * When the groups use up the memory budget, records of groups not already
+ * in memory are written to one of several temporary files chosen by the hash
+ * of their GROUP BY values. Once the groups in memory have been returned,
+ * the records of each file are aggregated in turn in the same way.
+ * Groups with a single integer GROUP BY value are found by indexing an
+ * array with the value instead of hashing, for as long as all values are of
+ * the same type and lie within a small range.
+ */
+class GroupAggregator {
+
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * Largest range of integer GROUP BY values to index groups by in an array.
+     */
+    private static final int MAX_DENSE_RANGE = 65536;
+
+    private AggregateFunction[] funcs;
+    private int parallelThreshold;
+    private long memoryBudget;
+    private File tempDirectory;
+    private int level;
+    private boolean keepAccumulators = false;
+    private AtomicLong memoryUsed = new AtomicLong();
+    private Partition main;
+    private Partition[] partitions = null;
+    private Future<?>[] pending;
+    private Batch batch = null;
+    private int batchCount = 0;
+    private boolean sortNeeded = false;
+    private long rowCount = 0;
+    private HashPartitionSpill spill = null;
+    private boolean spillProcessed = false;
+    private List<Group> memoryGroups = null;
+    private int memoryIndex;
+
+    /**
+     * Create an aggregator.
+     *
+     * @param funcs             aggregate functions to evaluate for each group.
+     * @param parallelThreshold number of records to add before using several
+     *                          threads, or 0 to always use the calling thread.
+     * @param memoryBudget      approximate number of bytes of groups to keep in
+     *                          memory, or 0 to keep all groups in memory.
+     * @param tempDirectory     directory for temporary files, or null for the
+     *                          default temporary directory.
+     */
+    public GroupAggregator(List<AggregateFunction> funcs, int parallelThreshold,
+                           long memoryBudget, File tempDirectory) {
+        this(funcs.toArray(new AggregateFunction[funcs.size()]), parallelThreshold, memoryBudget, tempDirectory, 0);
+    }
+
+    private GroupAggregator(AggregateFunction[] funcs, int parallelThreshold,
+                            long memoryBudget, File tempDirectory, int level) {
+        this.funcs = funcs;
+        this.parallelThreshold = parallelThreshold;
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+        this.level = level;
+        this.main = new Partition();
+    }
+
+    /**
+     * Keep the accumulators of groups read from temporary files instead of
+     * their results, so that all groups can still be merged with others.
+     *
+     * @param keepAccumulators true to keep accumulators.
+     */
+    public void setKeepAccumulators(boolean keepAccumulators) {
+        this.keepAccumulators = keepAccumulators;
+    }
+
+    /**
+     * Add a record to a group.
+     *
+     * @param key    GROUP BY values of the record.
+     * @param record record values.
+     * @throws SQLException if writing a temporary file fails.
+     */
+    public void add(List<Object> key, Object[] record) throws SQLException {
+        add(key, record, rowCount++);
+    }
+
+    private void add(List<?> key, Object[] record, long rowNumber) throws SQLException {
+        if (partitions != null && isOverBudget()) {
+            /*
+             * Continue in this thread, so that records of new groups can be
+             * written to temporary files.
+             */
+            mergePartitions();
+            parallelThreshold = 0;
+        }
+        if (partitions == null && spill == null && parallelThreshold > 0
+                && rowNumber >= parallelThreshold && WorkerThreads.getThreadCount() >= 2) {
+            partitions = new Partition[WorkerThreads.getThreadCount()];
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i] = new Partition();
+            }
+            pending = new Future<?>[partitions.length];
+        }
+        if (partitions != null) {
+            addToBatch(key, record, rowNumber);
+            return;
+        }
+        Group group = main.get(key);
+        if (group == null) {
+            if (level < HashPartitionSpill.MAX_LEVEL && isOverBudget() && !main.order.isEmpty()) {
+                spill(key, record, rowNumber);
+                return;
+            }
+            group = main.addGroup(key, record, rowNumber);
+        }
+        for (int i = 0; i < funcs.length; i++) {
+            Accumulator accumulator = (Accumulator) group.row[funcs[i].slot];
+            long size = (memoryBudget > 0) ? accumulator.estimateSize() : 0;
+            funcs[i].accumulate(accumulator, record);
+            addGrowth(accumulator, size);
+        }
+    }
+
+    /**
+     * Count the memory that an accumulator grew by against the budget, for
+     * accumulators that keep values, such as for COUNT(DISTINCT).
+     */
+    private void addGrowth(Accumulator accumulator, long sizeBefore) {
+        if (memoryBudget > 0) {
+            long growth = accumulator.estimateSize() - sizeBefore;
+            if (growth != 0) {
+                memoryUsed.addAndGet(growth);
+            }
+        }
+    }
+
+    private boolean isOverBudget() {
+        return memoryBudget > 0 && memoryUsed.get() > memoryBudget;
+    }
+
+    /**
+     * Get the next group once all records have been added.
+     *
+     * @return first record of the group, holding the accumulators of the
+     * group, or results in place of the accumulators if the group was read
+     * from a temporary file and accumulators are not kept. Null if there
+     * are no more groups.
+     * @throws SQLException if reading or writing a temporary file fails.
+     */
+    public Object[] next() throws SQLException {
+        Group group = nextGroup();
+        return (group != null) ? group.row : null;
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    public void close() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        memoryGroups = null;
+    }
+
+    private Group nextGroup() throws SQLException {
+        if (memoryGroups == null) {
+            finishAdding();
+        }
+        if (memoryIndex < memoryGroups.size()) {
+            Group group = memoryGroups.get(memoryIndex);
+            memoryGroups.set(memoryIndex++, null);
+            return group;
+        }
+        if (spill == null) {
+            return null;
+        }
+        if (!spillProcessed) {
+            spillProcessed = true;
+            spill.process(new SpillHandler());
+        }
+        if (!spill.nextResult()) {
+            return null;
+        }
+        return new Group(null, spill.getResultRow(), spill.getResultRowNumber());
+    }
+
+    private void finishAdding() throws SQLException {
+        if (partitions != null) {
+            mergePartitions();
+        }
+        memoryGroups = main.order;
+        memoryIndex = 0;
+        main = null;
+        if (sortNeeded) {
+            Collections.sort(memoryGroups, new Comparator<Group>() {
+                public int compare(Group g1, Group g2) {
+                    return (g1.firstRow < g2.firstRow) ? -1 : ((g1.firstRow > g2.firstRow) ? 1 : 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait for all batches to be aggregated and merge the tables of all
+     * threads into the table of this thread.
+     */
+    private void mergePartitions() {
+        if (batch != null) {
+            submitBatch();
+        }
+        for (int i = 0; i < pending.length; i++) {
+            waitFor(i);
+        }
+        for (int i = 0; i < partitions.length; i++) {
+            main.merge(partitions[i]);
+            partitions[i] = null;
+        }
+        partitions = null;
+        sortNeeded = true;
+    }
+
+    private void addToBatch(List<?> key, Object[] record, long rowNumber) {
+        if (batch == null) {
+            batch = new Batch(rowNumber);
+        }
+        Object[] values = new Object[funcs.length];
+        for (int i = 0; i < funcs.length; i++) {
+            values[i] = funcs[i].getValue(record);
+        }
+        batch.keys[batch.size] = key;
+        batch.records[batch.size] = record;
+        batch.values[batch.size] = values;
+        batch.size++;
+        if (batch.size == BATCH_SIZE) {
+            submitBatch();
+        }
+    }
+
+    /**
+     * Pass the current batch to the thread for its partition, once the
+     * previous batch of that partition is finished.
+     */
+    private void submitBatch() {
+        int index = batchCount % partitions.length;
+        final Partition partition = partitions[index];
+        final Batch submitted = batch;
+        waitFor(index);
+        pending[index] = WorkerThreads.getExecutor().submit(new Callable<Object>() {
+            public Object call() {
+                partition.addBatch(submitted);
+                return null;
+            }
+        });
+        batch = null;
+        batchCount++;
+    }
+
+    private void waitFor(int index) {
+        if (pending[index] == null) {
+            return;
+        }
+        try {
+            pending[index].get();
+            pending[index] = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Aggregation interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Write a record of a group that is not in memory to the temporary file
+     * for the hash of its GROUP BY values.
+     */
+    private void spill(List<?> key, Object[] record, long rowNumber) throws SQLException {
+        int h = key.hashCode() * (0x9E3779B1 + 2 * level * 0x27D4EB2F);
+        int index = (h ^ (h >>> 15)) >>> 28;
+        if (spill == null) {
+            spill = new HashPartitionSpill(tempDirectory);
+        }
+        try {
+            DataOutputStream out = spill.getOutput(index);
+            out.writeLong(rowNumber);
+            RowSerializer.writeRow(out, key.toArray());
+            RowSerializer.writeRow(out, record);
+        } catch (IOException e) {
+            throw TempFiles.writeError(e);
+        }
+    }
+
+    /**
+     * Records added together, with consecutive row numbers.
+     */
+    private static class Batch {
+
+        long firstRow;
+        int size = 0;
+        List<?>[] keys = new List<?>[BATCH_SIZE];
+        Object[][] records = new Object[BATCH_SIZE][];
+        Object[][] values = new Object[BATCH_SIZE][];
+
+        Batch(long firstRow) {
+            this.firstRow = firstRow;
+        }
+    }
+
+    private static class Group {
+
+        List<?> key;
+        Object[] row;
+        long firstRow;
+
+        Group(List<?> key, Object[] row, long firstRow) {
+            this.key = key;
+            this.row = row;
+            this.firstRow = firstRow;
+        }
+    }
+
+    /**
+     * Aggregates the records of a temporary file in an aggregator of their
+     * own, writing its groups with their results in the order of their
+     * first record.
+     */
+    private class SpillHandler implements HashPartitionSpill.Handler {
+
+        private GroupAggregator aggregator;
+
+        public void read(DataInputStream in, long count, HashPartitionSpill.ResultWriter results)
+                throws SQLException, IOException {
+            aggregator = new GroupAggregator(funcs, 0, memoryBudget, tempDirectory, level + 1);
+            aggregator.keepAccumulators = keepAccumulators;
+            for (long n = count; n > 0; n--) {
+                long rowNumber = in.readLong();
+                List<Object> key = Arrays.asList(RowSerializer.readRow(in));
+                Object[] record = RowSerializer.readRow(in);
+                aggregator.add(key, record, rowNumber);
+            }
+        }
+
+        public void finish(HashPartitionSpill.ResultWriter results) throws SQLException, IOException {
+            Group group;
+            while ((group = aggregator.nextGroup()) != null) {
+                /*
+                 * Keep results instead of accumulators, which would
+                 * take more space.
+                 */
+                if (!keepAccumulators) {
+                    for (int j = 0; j < funcs.length; j++) {
+                        funcs[j].finishGroup(group.row);
+                    }
+                }
+                results.write(group.firstRow, group.row);
+            }
+        }
+
+        public void close() {
+            if (aggregator != null) {
+                aggregator.close();
+                aggregator = null;
+            }
+        }
+    }
+
+    /**
+     * Table of groups aggregated by one thread.
+     */
+    private class Partition {
+
+        HashMap<List<?>, Group> groups = new HashMap<List<?>, Group>();
+        ArrayList<Group> order = new ArrayList<Group>();
+        /*
+         * Groups indexed by integer GROUP BY value less the base value, and
+         * the group for a NULL value, used until a GROUP BY value of another
+         * type or out of range is added. Then all groups move to the hash table.
+         */
+        boolean dense = true;
+        Group[] denseGroups = null;
+        long denseBase;
+        Class<?> denseType;
+        Group denseNullGroup = null;
+
+        Group get(List<?> key) {
+            if (dense && key.size() == 1) {
+                Object value = key.get(0);
+                if (value == null) {
+                    return denseNullGroup;
+                }
+                if (denseGroups == null || value.getClass() != denseType) {
+                    return null;
+                }
+                long index = ((Number) value).longValue() - denseBase;
+                return (index >= 0 && index < denseGroups.length) ? denseGroups[(int) index] : null;
+            }
+            return groups.get(key);
+        }
+
+        void put(List<?> key, Group group) {
+            if (dense && !putDense(key, group)) {
+                dense = false;
+                for (Group g : order) {
+                    groups.put(g.key, g);
+                }
+                denseGroups = null;
+                denseNullGroup = null;
+            }
+            if (!dense) {
+                groups.put(key, group);
+            }
+        }
+
+        /**
+         * @return false if the group cannot be indexed by its GROUP BY value.
+         */
+        private boolean putDense(List<?> key, Group group) {
+            if (key.size() != 1) {
+                return false;
+            }
+            Object value = key.get(0);
+            if (value == null) {
+                denseNullGroup = group;
+                return true;
+            }
+            if (!(value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte)) {
+                return false;
+            }
+            long n = ((Number) value).longValue();
+            if (denseGroups == null) {
+                denseGroups = new Group[16];
+                denseBase = n;
+                denseType = value.getClass();
+            } else if (value.getClass() != denseType) {
+                return false;
+            }
+            if (n < denseBase || n - denseBase >= denseGroups.length) {
+                long low = Math.min(n, denseBase);
+                long high = Math.max(n, denseBase + denseGroups.length - 1);
+                if (high - low >= MAX_DENSE_RANGE) {
+                    return false;
+                }
+                int length = (int) Math.max(high - low + 1, Math.min(2L * denseGroups.length, MAX_DENSE_RANGE));
+                long base = (n < denseBase) ? high - length + 1 : denseBase;
+                Group[] grown = new Group[length];
+                System.arraycopy(denseGroups, 0, grown, (int) (denseBase - base), denseGroups.length);
+                denseGroups = grown;
+                denseBase = base;
+            }
+            denseGroups[(int) (n - denseBase)] = group;
+            return true;
+        }
+
+        Group addGroup(List<?> key, Object[] record, long rowNumber) {
+            for (int i = 0; i < funcs.length; i++) {
+                record[funcs[i].slot] = funcs[i].createAccumulator();
+            }
+            Group group = new Group(key, record, rowNumber);
+            put(key, group);
+            order.add(group);
+            if (memoryBudget > 0) {
+                memoryUsed.addAndGet(RowSerializer.estimateSize(record) + 96);
+            }
+            return group;
+        }
+
+        void addBatch(Batch batch) {
+            for (int j = 0; j < batch.size; j++) {
+                Group group = get(batch.keys[j]);
+                if (group == null) {
+                    group = addGroup(batch.keys[j], batch.records[j], batch.firstRow + j);
+                }
+                Object[] values = batch.values[j];
+                for (int i = 0; i < funcs.length; i++) {
+                    Accumulator accumulator = (Accumulator) group.row[funcs[i].slot];
+                    long size = (memoryBudget > 0) ? accumulator.estimateSize() : 0;
+                    accumulator.add(values[i]);
+                    addGrowth(accumulator, size);
+                }
+            }
+        }
+
+        /**
+         * Merge the groups of another partition into this one, keeping
+         * the earliest first record of each group.
+         */
+        void merge(Partition other) {
+            for (Group otherGroup : other.order) {
+                Group group = get(otherGroup.key);
+                if (group == null) {
+                    put(otherGroup.key, otherGroup);
+                    order.add(otherGroup);
+                } else if (otherGroup.firstRow < group.firstRow) {
+                    for (int i = 0; i < funcs.length; i++) {
+                        int slot = funcs[i].slot;
+                        ((Accumulator) otherGroup.row[slot]).merge((Accumulator) group.row[slot]);
+                    }
+                    group.row = otherGroup.row;
+                    group.firstRow = otherGroup.firstRow;
+                } else {
+                    for (int i = 0; i < funcs.length; i++) {
+                        int slot = funcs[i].slot;
+                        ((Accumulator) group.row[slot]).merge((Accumulator) otherGroup.row[slot]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -45,31 +45,41 @@ public class LikePattern {
         } else {
             Pattern p = compiledRegexs.get(likePattern);
             if (p == null) {
-				/*
-				 * First convert LIKE pattern to a regular expression.
-				 */
-                StringBuffer regex = new StringBuffer();
-                StringTokenizer tokenizer = new StringTokenizer(likePattern, "%_", true);
-                while (tokenizer.hasMoreTokens()) {
-                    String token = tokenizer.nextToken();
-                    if (token.equals("%")) {
-                        regex.append(".*");
-                    } else if (token.equals("_")) {
-                        regex.append(".");
-                    } else {
-                        regex.append(Pattern.quote(token));
-                    }
-                }
-
 				/*
 				 * Cache compiled regular expression because we will probably be
 				 * using the same one again and again.
 				 */
-                p = Pattern.compile(regex.toString());
+                p = compile(likePattern);
                 compiledRegexs.put(likePattern, p);
             }
             retval = p.matcher(input).matches();
         }
         return retval;
     }
+
+    /**
+     * Convert an SQL LIKE pattern to a regular expression.
+     *
+     * @param likePattern an SQL LIKE pattern including % and _ characters.
+     * @return compiled regular expression, or null if there are no wildcards
+     * in the pattern so that strings can be compared instead.
+     */
+    public static Pattern compile(String likePattern) {
+        if (likePattern.indexOf('%') < 0 && likePattern.indexOf('_') < 0) {
+            return null;
+        }
+        StringBuffer regex = new StringBuffer();
+        StringTokenizer tokenizer = new StringTokenizer(likePattern, "%_", true);
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken();
+            if (token.equals("%")) {
+                regex.append(".*");
+            } else if (token.equals("_")) {
+                regex.append(".");
+            } else {
+                regex.append(Pattern.quote(token));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.xbib.jdbc.csv.support.StringConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns each column name that a query can reference a slot index in the
+ * <code>Object[]</code> records that expressions are evaluated against.
+ * Column references are resolved to slots once, when the query is planned,
+ * so that no name lookups are needed when reading rows.
+ */
+public class RowLayout {
+
+    private Map<String, Integer> slots;
+    private int size;
+    private StringConverter converter;
+    private Object[] placeholderValues;
+
+    public RowLayout(StringConverter converter) {
+        this.slots = new HashMap<String, Integer>();
+        this.size = 0;
+        this.converter = converter;
+    }
+
+    /**
+     * Create a copy of a layout that can be extended independently.
+     *
+     * @param layout layout to copy.
+     */
+    public RowLayout(RowLayout layout) {
+        this.slots = new HashMap<String, Integer>(layout.slots);
+        this.size = layout.size;
+        this.converter = layout.converter;
+        this.placeholderValues = layout.placeholderValues;
+    }
+
+    /**
+     * Make a column name refer to a slot, replacing any slot it referred to before.
+     *
+     * @param columnName column name, case insensitive.
+     * @param slot       index of slot in each record.
+     */
+    public void setSlot(String columnName, int slot) {
+        slots.put(columnName.toUpperCase(), Integer.valueOf(slot));
+        if (slot >= size) {
+            size = slot + 1;
+        }
+    }
+
+    /**
+     * Add a new slot at the end of each record.
+     *
+     * @return index of the new slot.
+     */
+    public int addSlot() {
+        return size++;
+    }
+
+    /**
+     * Get the slot that a column name refers to.
+     *
+     * @param columnName upper case column name.
+     * @return slot index, or -1 if the column name is unknown.
+     */
+    public int getSlot(String columnName) {
+        Integer slot = slots.get(columnName);
+        if (slot == null) {
+            return -1;
+        }
+        return slot.intValue();
+    }
+
+    /**
+     * @return number of slots in each record.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return data type converter for evaluating expressions such as MYDATE > '2012-06-31'.
+     */
+    public StringConverter getConverter() {
+        return converter;
+    }
+
+    public void setPlaceholderValues(Object[] placeholderValues) {
+        this.placeholderValues = placeholderValues;
+    }
+
+    /**
+     * Get value of a prepared statement place-holder.
+     *
+     * @param index place-holder number, starting at 1.
+     * @return value for place-holder, or null if no value is set.
+     */
+    public Object getPlaceholderValue(int index) {
+        if (placeholderValues == null || index >= placeholderValues.length) {
+            return null;
+        }
+        return placeholderValues[index];
+    }
+}
@@ -17,6 +17,7 @@ package org.xbib.jdbc.csv;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -48,6 +49,11 @@ public class SqlParser {
     private ParsedExpression whereClause;
     private List<Object[]> environment;
     private List<Expression> groupByColumns;
+    /**
+     * Positions in groupByColumns of the expressions of each grouping set,
+     * or null if there is a single grouping set of all GROUP BY columns
+     */
+    private List<int[]> groupingSets;
     private ParsedExpression havingClause;
     private List<Object[]> orderByColumns;
     private int limit;
@@ -136,9 +142,48 @@ public class SqlParser {
         if (it2.hasNext()) {
             groupByColumns = new ArrayList<Expression>();
         }
+        List<List<Expression>> sets = new ArrayList<List<Expression>>();
+        sets.add(new ArrayList<Expression>());
+        boolean hasGroupingSets = false;
         while (it2.hasNext()) {
             ParsedExpression cc = it2.next();
-            groupByColumns.add(cc.content);
+            List<List<Expression>> entrySets;
+            if (cc.content instanceof GroupingSets) {
+                entrySets = ((GroupingSets) cc.content).sets;
+                hasGroupingSets = true;
+            } else {
+                entrySets = Collections.singletonList(Collections.singletonList(cc.content));
+                groupByColumns.add(cc.content);
+            }
+
+            /*
+             * Combine each grouping set of the entries before with each
+             * grouping set of this entry.
+             */
+            List<List<Expression>> combinedSets = new ArrayList<List<Expression>>();
+            for (List<Expression> set : sets) {
+                for (List<Expression> entrySet : entrySets) {
+                    List<Expression> combined = new ArrayList<Expression>(set);
+                    combined.addAll(entrySet);
+                    combinedSets.add(combined);
+                }
+            }
+            sets = combinedSets;
+        }
+        if (hasGroupingSets) {
+            /*
+             * Group by every distinct expression of any grouping set, with
+             * each grouping set given by the positions of its expressions.
+             */
+            groupByColumns.clear();
+            groupingSets = new ArrayList<int[]>();
+            for (List<Expression> set : sets) {
+                int[] positions = new int[set.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = getGroupByPosition(set.get(i));
+                }
+                groupingSets.add(positions);
+            }
         }
         this.havingClause = cs2.havingClause;
 
@@ -171,6 +216,21 @@ public class SqlParser {
         return groupByColumns;
     }
 
+    private int getGroupByPosition(Expression expression) {
+        String name = expression.toString();
+        for (int i = 0; i < groupByColumns.size(); i++) {
+            if (groupByColumns.get(i).toString().equals(name)) {
+                return i;
+            }
+        }
+        groupByColumns.add(expression);
+        return groupByColumns.size() - 1;
+    }
+
+    public List<int[]> getGroupingSets() {
+        return groupingSets;
+    }
+
     public Expression getHavingClause() {
         return havingClause;
     }
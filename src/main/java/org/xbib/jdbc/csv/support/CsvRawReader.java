@@ -21,6 +21,7 @@ import org.xbib.jdbc.csv.CsvDriver;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -60,6 +61,9 @@ public class CsvRawReader {
     private boolean ignoreUnparseableLines;
     private String quoteStyle;
     private List<int[]> fixedWidthColumns;
+    private long firstLinePosition = -1;
+    private long recordPosition = -1;
+    private RandomAccessFile randomAccessFile;
 
     /**
      * Insert the method's description here.
@@ -109,6 +113,7 @@ public class CsvRawReader {
                 // No column names available. Read first data line and determine
                 // number of columns.
                 firstLineBuffer = getNextDataLine();
+                firstLinePosition = getLinePosition();
                 String[] data = parseLine(firstLineBuffer, false);
                 this.columnNames = new String[data.length];
                 for (int i = 0; i < data.length; i++) {
@@ -160,9 +165,11 @@ public class CsvRawReader {
                 // The buffer is not empty yet, so use this first.
                 dataLine = firstLineBuffer;
                 firstLineBuffer = null;
+                recordPosition = firstLinePosition;
             } else {
                 // read new line of data from input.
                 dataLine = getNextDataLine();
+                recordPosition = getLinePosition();
             }
             if (dataLine == null) {
                 input.close();
@@ -185,6 +192,61 @@ public class CsvRawReader {
             firstLineBuffer = null;
         } catch (Exception e) {
         }
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+                randomAccessFile = null;
+            }
+        } catch (Exception e) {
+        }
+    }
+
+    private long getLinePosition() {
+        if (input instanceof PositionedLineReader) {
+            return ((PositionedLineReader) input).getLinePosition();
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if records can be read again using <code>readRecordAt</code>.
+     */
+    public boolean isSeekable() {
+        return input instanceof PositionedLineReader;
+    }
+
+    /**
+     * @return byte offset in the file of the record last read by <code>next</code>.
+     */
+    public long getRecordPosition() {
+        return recordPosition;
+    }
+
+    /**
+     * Read and parse a record again, without changing the current record.
+     *
+     * @param position byte offset of record, as returned by <code>getRecordPosition</code>.
+     * @return the record field values.
+     * @throws SQLException if the record cannot be read.
+     */
+    public String[] readRecordAt(long position) throws SQLException {
+        PositionedLineReader positionedReader = (PositionedLineReader) input;
+        try {
+            if (randomAccessFile == null) {
+                randomAccessFile = new RandomAccessFile(positionedReader.getFile(), "r");
+            }
+            BufferedReader in = positionedReader.openAt(randomAccessFile, position);
+            String line = in.readLine();
+            if (line == null) {
+                throw new SQLException("Cannot read record at position " + position);
+            }
+            if (fixedWidthColumns != null) {
+                return parseFixedLine(line, false);
+            }
+            return parseCsvLine(line, false, in);
+        } catch (IOException e) {
+            throw new SQLException(e.toString());
+        }
     }
 
     /**
@@ -273,7 +335,7 @@ public class CsvRawReader {
         if (fixedWidthColumns != null) {
             values = parseFixedLine(line, trimValues);
         } else {
-            values = parseCsvLine(line, trimValues);
+            values = parseCsvLine(line, trimValues, input);
         }
         return values;
     }
@@ -305,10 +367,11 @@ public class CsvRawReader {
      *
      * @param line       the line to parse
      * @param trimValues tells whether to remove leading and trailing spaces
+     * @param in         input to read any further lines of a field containing line breaks
      * @return
      * @throws SQLException
      */
-    private String[] parseCsvLine(String line, boolean trimValues)
+    private String[] parseCsvLine(String line, boolean trimValues, BufferedReader in)
             throws SQLException {
         // TODO: quoteChar should be recognized ONLY when close to separator. 
         List<String> values = new ArrayList();
@@ -385,7 +448,7 @@ public class CsvRawReader {
                 // Remove extra separator added at start.
                 value = new StringBuffer(value.substring(0, value.length() - 1));
                 try {
-                    String additionalLine = input.readLine();
+                    String additionalLine = in.readLine();
                     if (additionalLine == null) {
                         throw new SQLException("EOF reached inside quoted mode");
                     }
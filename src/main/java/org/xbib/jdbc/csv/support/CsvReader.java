@@ -2,8 +2,6 @@ package org.xbib.jdbc.csv.support;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.ArrayList;
 
 public class CsvReader implements DataReader {
@@ -13,7 +11,6 @@ public class CsvReader implements DataReader {
     int transposedLines;
     private int transposedFieldsToSkip;
     String[] columnNames;
-    String[] aliasedColumnNames;
     private String[] columnTypes;
     ArrayList<String[]> firstTable;
     int joiningValueNo;
@@ -117,22 +114,6 @@ public class CsvReader implements DataReader {
         }
     }
 
-    public String[] getAliasedColumnNames() {
-        if (this.aliasedColumnNames == null) {
-            String tableAlias = rawReader.getTableAlias();
-            if (tableAlias != null) {                /*
-				 * Create array of "T.ID" column aliases that we can use for every row.
-				 */
-                String[] columnNames = getColumnNames();
-                this.aliasedColumnNames = new String[columnNames.length];
-                for (int i = 0; i < columnNames.length; i++) {
-                    this.aliasedColumnNames[i] = tableAlias + "." + columnNames[i].toUpperCase();
-                }
-            }
-        }
-        return this.aliasedColumnNames;
-    }
-
     public Object getField(int i) throws SQLException {
         if (isPlainReader()) {
             return rawReader.getField(i);
@@ -145,37 +126,52 @@ public class CsvReader implements DataReader {
         rawReader.close();
     }
 
-    public Map<String, Object> getEnvironment() throws SQLException {
+    public Object[] getValues() throws SQLException {
 
         if (fieldValues.length != getColumnNames().length) {
             throw new SQLException("data contains " + fieldValues.length + " columns, expected " + getColumnNames().length);
         }
+        return convertValues(fieldValues);
+    }
+
+    private Object[] convertValues(String[] values) {
         if (columnTypes == null) {
             getColumnTypes();
         }
-        String[] columnNames = getColumnNames();
-        String[] columnAliases = getAliasedColumnNames();
-
-        int nKeys = 1 + columnNames.length;
-        if (columnAliases != null) {
-            nKeys += columnAliases.length;
+        Object[] result = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = converter.convert(columnTypes[i], values[i]);
         }
-        Map<String, Object> result = new HashMap<String, Object>(nKeys, 1);
-        result.put("@STRINGCONVERTER", converter);
-
-        for (int i = 0; i < columnNames.length; i++) {
-            String key = columnNames[i].toUpperCase();
-            Object value = converter.convert(columnTypes[i], fieldValues[i]);
-            result.put(key, value);
-            if (columnAliases != null) {
-				/*
-				 * Also allow column value to be accessed as S.ID  if table alias S is set.
-				 */
-                result.put(columnAliases[i], value);
-            }
+        return result;
+    }
+
+    /**
+     * @return true if rows can be read again later using <code>getValuesAt</code>.
+     */
+    public boolean isSeekable() {
+        return isPlainReader() && rawReader.isSeekable();
+    }
+
+    /**
+     * @return position in the file of the current row.
+     */
+    public long getRecordPosition() {
+        return rawReader.getRecordPosition();
+    }
 
+    /**
+     * Read a row again from its position in the file, without changing the current row.
+     *
+     * @param position position of row, as returned by <code>getRecordPosition</code>.
+     * @return new array of converted column values.
+     * @throws SQLException if the row cannot be read.
+     */
+    public Object[] getValuesAt(long position) throws SQLException {
+        String[] values = rawReader.readRecordAt(position);
+        if (values.length != getColumnNames().length) {
+            throw new SQLException("data contains " + values.length + " columns, expected " + getColumnNames().length);
         }
-        return result;
+        return convertValues(values);
     }
 
     public void setColumnTypes(String line) throws SQLException {
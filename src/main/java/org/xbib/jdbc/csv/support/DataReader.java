@@ -1,7 +1,6 @@
 package org.xbib.jdbc.csv.support;
 
 import java.sql.SQLException;
-import java.util.Map;
 
 public interface DataReader {
 
@@ -15,7 +14,13 @@ public interface DataReader {
 
     void close() throws SQLException;
 
-    Map<String, Object> getEnvironment() throws SQLException;
+    /**
+     * Get the values of all columns in the current row.
+     *
+     * @return new array of converted column values, in the same order as the column names.
+     * @throws SQLException if the row cannot be read.
+     */
+    Object[] getValues() throws SQLException;
 
     String[] getColumnTypes() throws SQLException;
 
@@ -0,0 +1,361 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts rows using no more than an approximate memory budget. Rows are
+ * collected until the budget is used up, then sorted and written to a
+ * temporary file as a sorted run. When all rows have been added, the runs are
+ * merged together, reading a row at a time from each run.
+ * The sort is stable: rows that compare equal are returned in the order they
+ * were added.
+ */
+public class ExternalSorter {
+
+    /**
+     * Maximum number of runs merged at the same time.
+     */
+    private static final int MAX_MERGE_RUNS = 64;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private Comparator<Object[]> comparator;
+    private long memoryBudget;
+    private File tempDirectory;
+    private int parallelSortThreshold;
+    private int normalizedKeySlot = -1;
+    private List<Object[]> rows = new ArrayList<Object[]>();
+    private long memoryUsed = 0;
+    private List<File> runs = new ArrayList<File>();
+    private Object[][] sortedRows;
+    private int sortedIndex;
+    private PriorityQueue<RunReader> mergeQueue;
+
+    /**
+     * Create a sorter.
+     *
+     * @param comparator    order of rows.
+     * @param memoryBudget  approximate number of bytes of rows to sort in memory,
+     *                      or 0 to sort all rows in memory.
+     * @param tempDirectory directory for temporary files, or null for the
+     *                      default temporary directory.
+     * @param parallelSortThreshold minimum number of rows in memory to sort
+     *                      using several threads, or 0 to sort in one thread.
+     */
+    public ExternalSorter(Comparator<Object[]> comparator, long memoryBudget, File tempDirectory,
+                          int parallelSortThreshold) {
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+        this.parallelSortThreshold = parallelSortThreshold;
+    }
+
+    /**
+     * Sort rows in memory by radix sort when all of them have a byte array
+     * sort key created by <code>SortKeyEncoder</code>.
+     *
+     * @param normalizedKeySlot slot of each row holding its sort key.
+     */
+    public void setNormalizedKeySlot(int normalizedKeySlot) {
+        this.normalizedKeySlot = normalizedKeySlot;
+    }
+
+    /**
+     * Add a row to be sorted.
+     *
+     * @param row row values.
+     * @throws SQLException if a sorted run cannot be written.
+     */
+    public void add(Object[] row) throws SQLException {
+        rows.add(row);
+        if (memoryBudget > 0) {
+            memoryUsed += RowSerializer.estimateSize(row);
+            if (memoryUsed > memoryBudget) {
+                runs.add(writeRun(sortRows()));
+                rows = new ArrayList<Object[]>();
+                memoryUsed = 0;
+            }
+        }
+    }
+
+    /**
+     * Finish adding rows, so that sorted rows can be read with <code>next</code>.
+     *
+     * @throws SQLException if sorted runs cannot be merged.
+     */
+    public void sort() throws SQLException {
+        sortedRows = sortRows();
+        sortedIndex = 0;
+        rows = null;
+        if (!runs.isEmpty()) {
+            /*
+             * Last rows do not need to be written to disk, merge them directly
+             * from memory with the runs already written.
+             */
+            while (runs.size() > MAX_MERGE_RUNS) {
+                /*
+                 * Too many runs to merge at once, merge neighbouring runs
+                 * together first, keeping runs in the order they were written.
+                 */
+                List<File> mergedRuns = new ArrayList<File>();
+                while (!runs.isEmpty()) {
+                    List<File> group = runs.subList(0, Math.min(MAX_MERGE_RUNS, runs.size()));
+                    if (group.size() == 1) {
+                        mergedRuns.add(group.get(0));
+                    } else {
+                        mergedRuns.add(mergeRuns(new ArrayList<File>(group)));
+                    }
+                    group.clear();
+                }
+                runs = mergedRuns;
+            }
+            mergeQueue = openRuns(runs);
+            if (sortedRows.length > 0) {
+                mergeQueue.add(new RunReader(sortedRows, runs.size()));
+            }
+            sortedRows = null;
+        }
+    }
+
+    /**
+     * Get the next row in sorted order.
+     *
+     * @return next row, or null if there are no more rows.
+     * @throws SQLException if reading a sorted run fails.
+     */
+    public Object[] next() throws SQLException {
+        if (mergeQueue == null) {
+            if (sortedRows == null || sortedIndex >= sortedRows.length) {
+                return null;
+            }
+            Object[] row = sortedRows[sortedIndex];
+            sortedRows[sortedIndex++] = null;
+            return row;
+        }
+        try {
+            return nextMerged(mergeQueue);
+        } catch (IOException e) {
+            throw TempFiles.readError(e);
+        }
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    public void close() {
+        if (mergeQueue != null) {
+            for (RunReader reader : mergeQueue) {
+                reader.close();
+            }
+            mergeQueue = null;
+        }
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        rows = null;
+        sortedRows = null;
+    }
+
+    private Object[][] sortRows() {
+        Object[][] allRows = rows.toArray(new Object[rows.size()][]);
+        if (hasNormalizedKeys(allRows) && !ParallelSorter.isParallel(allRows.length, parallelSortThreshold)) {
+            RadixSorter.sort(allRows, normalizedKeySlot);
+        } else {
+            ParallelSorter.sort(allRows, comparator, parallelSortThreshold);
+        }
+        return allRows;
+    }
+
+    private boolean hasNormalizedKeys(Object[][] allRows) {
+        if (normalizedKeySlot < 0) {
+            return false;
+        }
+        for (int i = 0; i < allRows.length; i++) {
+            if (allRows[i][normalizedKeySlot] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private File writeRun(Object[][] sorted) throws SQLException {
+        File run = null;
+        try {
+            run = TempFiles.create(tempDirectory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+            try {
+                out.writeInt(sorted.length);
+                for (int i = 0; i < sorted.length; i++) {
+                    RowSerializer.writeRow(out, sorted[i]);
+                }
+            } finally {
+                out.close();
+            }
+            return run;
+        } catch (IOException e) {
+            if (run != null) {
+                run.delete();
+            }
+            throw TempFiles.writeError(e);
+        }
+    }
+
+    private File mergeRuns(List<File> mergeRuns) throws SQLException {
+        PriorityQueue<RunReader> queue = openRuns(mergeRuns);
+        File run = null;
+        try {
+            int count = 0;
+            for (RunReader reader : queue) {
+                count += reader.remaining + 1;
+            }
+            run = TempFiles.create(tempDirectory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+            try {
+                out.writeInt(count);
+                Object[] row;
+                while ((row = nextMerged(queue)) != null) {
+                    RowSerializer.writeRow(out, row);
+                }
+            } finally {
+                out.close();
+            }
+            return run;
+        } catch (IOException e) {
+            if (run != null) {
+                run.delete();
+            }
+            throw TempFiles.writeError(e);
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            for (File f : mergeRuns) {
+                f.delete();
+            }
+        }
+    }
+
+    private PriorityQueue<RunReader> openRuns(List<File> runFiles) throws SQLException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runFiles.size() + 1);
+        try {
+            for (int i = 0; i < runFiles.size(); i++) {
+                RunReader reader = new RunReader(runFiles.get(i), i);
+                if (reader.current != null) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            throw TempFiles.readError(e);
+        }
+        return queue;
+    }
+
+    private Object[] nextMerged(PriorityQueue<RunReader> queue) throws IOException {
+        RunReader reader = queue.poll();
+        if (reader == null) {
+            return null;
+        }
+        Object[] row = reader.current;
+        if (reader.advance()) {
+            queue.add(reader);
+        } else {
+            reader.close();
+        }
+        return row;
+    }
+
+    /**
+     * Reads the rows of one sorted run, either from a file or from memory.
+     * Runs are ordered by their current row, and then by run number so that
+     * equal rows are merged in the order they were added.
+     */
+    private class RunReader implements Comparable<RunReader> {
+
+        private DataInputStream in;
+        private Object[][] memoryRows;
+        private int memoryIndex;
+        private int remaining;
+        private int runNumber;
+        private Object[] current;
+
+        RunReader(File file, int runNumber) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            this.runNumber = runNumber;
+            this.remaining = in.readInt();
+            advance();
+        }
+
+        RunReader(Object[][] memoryRows, int runNumber) {
+            this.memoryRows = memoryRows;
+            this.memoryIndex = 0;
+            this.runNumber = runNumber;
+            this.remaining = memoryRows.length;
+            try {
+                advance();
+            } catch (IOException e) {
+                // not possible when reading from memory
+            }
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            if (memoryRows != null) {
+                current = memoryRows[memoryIndex];
+                memoryRows[memoryIndex++] = null;
+            } else {
+                current = RowSerializer.readRow(in);
+            }
+            return true;
+        }
+
+        void close() {
+            TempFiles.close(in);
+            in = null;
+        }
+
+        public int compareTo(RunReader other) {
+            int retval = comparator.compare(current, other.current);
+            if (retval == 0) {
+                retval = runNumber - other.runNumber;
+            }
+            return retval;
+        }
+    }
+}
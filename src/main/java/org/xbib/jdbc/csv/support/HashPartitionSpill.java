@@ -0,0 +1,302 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Temporary files for records that do not fit in the memory budget of a
+ * hash table, such as the groups of GROUP BY or the values of SELECT
+ * DISTINCT. Records are divided between several files by the hash of their
+ * values, so that the records of each file can be processed in turn by a
+ * <code>Handler</code> in a table of their own. The handler writes the
+ * results of each file, in the order of the row number of each result, to a
+ * file of their own, and the results of all files are then merged by row
+ * number.
+ */
+public class HashPartitionSpill {
+
+    /**
+     * Number of temporary files that records are divided between.
+     */
+    public static final int PARTITIONS = 16;
+
+    /**
+     * Maximum number of times that the records of a temporary file are
+     * divided again, for values that all have the same hash.
+     */
+    public static final int MAX_LEVEL = 8;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private File tempDirectory;
+    private File[] files = new File[PARTITIONS];
+    private DataOutputStream[] outputs = new DataOutputStream[PARTITIONS];
+    private long[] counts = new long[PARTITIONS];
+    private List<File> resultFiles = new ArrayList<File>();
+    private PriorityQueue<ResultReader> resultQueue = new PriorityQueue<ResultReader>(PARTITIONS);
+    private long resultRowNumber;
+    private Object[] resultRow;
+
+    /**
+     * Processes the records of one temporary file.
+     */
+    public interface Handler {
+
+        /**
+         * Read the records of a temporary file. Results may be written while
+         * reading, as long as they are written in order of row number.
+         *
+         * @param in      input of the records.
+         * @param count   number of records.
+         * @param results output for the results.
+         * @throws SQLException if a record cannot be processed.
+         * @throws IOException  if reading or writing a temporary file fails.
+         */
+        void read(DataInputStream in, long count, ResultWriter results) throws SQLException, IOException;
+
+        /**
+         * Write the remaining results, once the temporary file of records
+         * has been deleted.
+         *
+         * @param results output for the results.
+         * @throws SQLException if a result cannot be created.
+         * @throws IOException  if reading or writing a temporary file fails.
+         */
+        void finish(ResultWriter results) throws SQLException, IOException;
+
+        /**
+         * Free all resources used for the records of the temporary file.
+         */
+        void close();
+    }
+
+    /**
+     * Writes the results of one temporary file of records.
+     */
+    public static class ResultWriter {
+
+        private DataOutputStream out;
+
+        ResultWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Write a result.
+         *
+         * @param rowNumber number of the row that the result is returned at.
+         * @param row       result values.
+         * @throws IOException if writing the temporary file fails.
+         */
+        public void write(long rowNumber, Object[] row) throws IOException {
+            out.writeBoolean(true);
+            out.writeLong(rowNumber);
+            RowSerializer.writeRow(out, row);
+        }
+    }
+
+    /**
+     * Create temporary files for records.
+     *
+     * @param tempDirectory directory for temporary files, or null for the
+     *                      default temporary directory.
+     */
+    public HashPartitionSpill(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Get the output to write a single record to, creating the temporary
+     * file when first needed.
+     *
+     * @param partition number of the temporary file, from 0 to PARTITIONS - 1.
+     * @return output for the record.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public DataOutputStream getOutput(int partition) throws IOException {
+        if (outputs[partition] == null) {
+            files[partition] = TempFiles.create(tempDirectory);
+            outputs[partition] = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(files[partition]), BUFFER_SIZE));
+        }
+        counts[partition]++;
+        return outputs[partition];
+    }
+
+    /**
+     * Process the records of each temporary file in turn, once all records
+     * have been written, so that the results can be read.
+     *
+     * @param handler processor of the records of each file.
+     * @throws SQLException if a record cannot be processed, or reading or
+     *                      writing a temporary file fails.
+     */
+    public void process(Handler handler) throws SQLException {
+        try {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (outputs[i] != null) {
+                    outputs[i].close();
+                    outputs[i] = null;
+                }
+            }
+        } catch (IOException e) {
+            throw TempFiles.writeError(e);
+        }
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (files[i] == null) {
+                continue;
+            }
+            try {
+                File resultFile = TempFiles.create(tempDirectory);
+                resultFiles.add(resultFile);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(resultFile), BUFFER_SIZE));
+                try {
+                    ResultWriter results = new ResultWriter(out);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(files[i]), BUFFER_SIZE));
+                    try {
+                        handler.read(in, counts[i], results);
+                    } finally {
+                        in.close();
+                    }
+                    files[i].delete();
+                    files[i] = null;
+                    handler.finish(results);
+                    out.writeBoolean(false);
+                } finally {
+                    out.close();
+                    handler.close();
+                }
+                ResultReader reader = new ResultReader(resultFile);
+                if (reader.advance()) {
+                    resultQueue.add(reader);
+                } else {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw TempFiles.readError(e);
+            }
+        }
+    }
+
+    /**
+     * Move to the next result of all temporary files, in order of row number.
+     *
+     * @return true if there is a result, false if there are no more results.
+     * @throws SQLException if reading a temporary file fails.
+     */
+    public boolean nextResult() throws SQLException {
+        ResultReader reader = resultQueue.poll();
+        if (reader == null) {
+            resultRow = null;
+            return false;
+        }
+        resultRowNumber = reader.rowNumber;
+        resultRow = reader.row;
+        try {
+            if (reader.advance()) {
+                resultQueue.add(reader);
+            } else {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw TempFiles.readError(e);
+        }
+        return true;
+    }
+
+    /**
+     * @return row number of the current result.
+     */
+    public long getResultRowNumber() {
+        return resultRowNumber;
+    }
+
+    /**
+     * @return values of the current result.
+     */
+    public Object[] getResultRow() {
+        return resultRow;
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    public void close() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            TempFiles.close(outputs[i]);
+            outputs[i] = null;
+            if (files[i] != null) {
+                files[i].delete();
+                files[i] = null;
+            }
+        }
+        for (ResultReader reader : resultQueue) {
+            reader.close();
+        }
+        resultQueue.clear();
+        for (File file : resultFiles) {
+            file.delete();
+        }
+        resultFiles.clear();
+        resultRow = null;
+    }
+
+    /**
+     * Reads the results of one temporary file, in order of row number.
+     */
+    private static class ResultReader implements Comparable<ResultReader> {
+
+        private DataInputStream in;
+        private long rowNumber;
+        private Object[] row;
+
+        ResultReader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        boolean advance() throws IOException {
+            if (!in.readBoolean()) {
+                row = null;
+                return false;
+            }
+            rowNumber = in.readLong();
+            row = RowSerializer.readRow(in);
+            return true;
+        }
+
+        void close() {
+            TempFiles.close(in);
+        }
+
+        public int compareTo(ResultReader other) {
+            return (rowNumber < other.rowNumber) ? -1 : ((rowNumber > other.rowNumber) ? 1 : 0);
+        }
+    }
+}
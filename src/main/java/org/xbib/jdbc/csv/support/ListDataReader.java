@@ -17,9 +17,7 @@ package org.xbib.jdbc.csv.support;
 
 import java.sql.SQLException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A reader from a list, enabling database metadata functions to return JDBC ResultSet objects
@@ -61,13 +59,8 @@ public class ListDataReader implements DataReader {
     }
 
     @Override
-    public Map<String, Object> getEnvironment() throws SQLException {
-        HashMap<String, Object> retval = new HashMap<String, Object>();
-        Object[] o = columnValues.get(rowIndex);
-        for (int i = 0; i < columnNames.length; i++) {
-            retval.put(columnNames[i], o[i]);
-        }
-        return retval;
+    public Object[] getValues() throws SQLException {
+        return columnValues.get(rowIndex).clone();
     }
 
     @Override
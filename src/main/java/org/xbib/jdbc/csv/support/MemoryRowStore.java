@@ -0,0 +1,51 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row store holding all rows in memory.
+ */
+public class MemoryRowStore implements RowStore {
+
+    private List<Object[]> rows = new ArrayList<Object[]>();
+
+    public void add(Object[] row) {
+        rows.add(row);
+    }
+
+    public Object[] get(int index) {
+        return rows.get(index);
+    }
+
+    public void release(int index) {
+        rows.set(index, null);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public void clear() {
+        rows.clear();
+    }
+
+    public void close() {
+        rows = new ArrayList<Object[]>();
+    }
+}
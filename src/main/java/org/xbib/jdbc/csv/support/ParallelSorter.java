@@ -0,0 +1,210 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Stable merge sort of rows using all available processors. The rows are
+ * divided into one part per processor and each part is sorted in its own
+ * thread. Neighbouring parts are then merged in rounds, with large merges
+ * split into independent pieces so that all threads are kept busy.
+ * The comparator must be safe to call from several threads at once.
+ */
+public class ParallelSorter {
+
+    /**
+     * Sort rows, using several threads if there are at least
+     * <code>threshold</code> rows.
+     *
+     * @param rows       rows to sort.
+     * @param comparator order of rows.
+     * @param threshold  minimum number of rows to sort in parallel, or 0 to
+     *                   always sort in the calling thread.
+     */
+    public static void sort(Object[][] rows, Comparator<Object[]> comparator, int threshold) {
+        if (!isParallel(rows.length, threshold)) {
+            Arrays.sort(rows, comparator);
+            return;
+        }
+        int threads = WorkerThreads.getThreadCount();
+        int parts = Math.min(threads, rows.length / 2);
+        int[] bounds = new int[parts + 1];
+        for (int i = 0; i <= parts; i++) {
+            bounds[i] = (int) ((long) rows.length * i / parts);
+        }
+        try {
+            sortParts(rows, bounds, comparator);
+            Object[][] src = rows;
+            Object[][] dst = new Object[rows.length][];
+            while (bounds.length > 2) {
+                bounds = mergeParts(src, dst, bounds, comparator, threads);
+                Object[][] swap = src;
+                src = dst;
+                dst = swap;
+            }
+            if (src != rows) {
+                System.arraycopy(src, 0, rows, 0, rows.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sort interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @param rowCount  number of rows to sort.
+     * @param threshold minimum number of rows to sort in parallel, or 0 to
+     *                  always sort in the calling thread.
+     * @return true if the rows would be sorted using several threads.
+     */
+    public static boolean isParallel(int rowCount, int threshold) {
+        return threshold > 0 && rowCount >= Math.max(2, threshold) && WorkerThreads.getThreadCount() >= 2;
+    }
+
+    private static void sortParts(final Object[][] rows, int[] bounds, final Comparator<Object[]> comparator)
+            throws InterruptedException, ExecutionException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    Arrays.sort(rows, from, to, comparator);
+                    return null;
+                }
+            });
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Merge each pair of neighbouring sorted parts from <code>src</code> into <code>dst</code>.
+     *
+     * @return bounds of the merged parts.
+     */
+    private static int[] mergeParts(final Object[][] src, final Object[][] dst, int[] bounds,
+                                    final Comparator<Object[]> comparator, int threads)
+            throws InterruptedException, ExecutionException {
+        int parts = bounds.length - 1;
+        int pairs = parts / 2;
+        int pieces = Math.max(1, threads / Math.max(1, pairs));
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        int[] merged = new int[(parts + 1) / 2 + 1];
+        for (int p = 0; p < pairs; p++) {
+            int lo = bounds[2 * p];
+            int mid = bounds[2 * p + 1];
+            int hi = bounds[2 * p + 2];
+            merged[p] = lo;
+            /*
+             * Split the merge into pieces at evenly spaced rows of the left
+             * part. Rows of the right part that sort before a split row go
+             * into the earlier piece, so that equal rows from the left part
+             * stay in front.
+             */
+            int leftFrom = lo;
+            int rightFrom = mid;
+            for (int k = 1; k <= pieces; k++) {
+                int leftTo;
+                int rightTo;
+                if (k == pieces) {
+                    leftTo = mid;
+                    rightTo = hi;
+                } else {
+                    leftTo = lo + (int) ((long) (mid - lo) * k / pieces);
+                    rightTo = (leftTo < mid) ? lowerBound(src, rightFrom, hi, src[leftTo], comparator) : hi;
+                }
+                tasks.add(createMergeTask(src, dst, leftFrom, leftTo, rightFrom, rightTo,
+                        leftFrom + (rightFrom - mid), comparator));
+                leftFrom = leftTo;
+                rightFrom = rightTo;
+            }
+        }
+        if (parts % 2 == 1) {
+            /*
+             * Odd part left over, copy it unchanged.
+             */
+            int lo = bounds[parts - 1];
+            int hi = bounds[parts];
+            System.arraycopy(src, lo, dst, lo, hi - lo);
+            merged[pairs] = lo;
+        }
+        merged[merged.length - 1] = bounds[parts];
+        runAll(tasks);
+        return merged;
+    }
+
+    private static Callable<Object> createMergeTask(final Object[][] src, final Object[][] dst,
+                                                    final int leftFrom, final int leftTo,
+                                                    final int rightFrom, final int rightTo,
+                                                    final int dstFrom, final Comparator<Object[]> comparator) {
+        return new Callable<Object>() {
+            public Object call() {
+                int i = leftFrom;
+                int j = rightFrom;
+                int d = dstFrom;
+                while (i < leftTo && j < rightTo) {
+                    if (comparator.compare(src[i], src[j]) <= 0) {
+                        dst[d++] = src[i++];
+                    } else {
+                        dst[d++] = src[j++];
+                    }
+                }
+                System.arraycopy(src, i, dst, d, leftTo - i);
+                d += leftTo - i;
+                System.arraycopy(src, j, dst, d, rightTo - j);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return index of first row in sorted range that does not sort before <code>key</code>.
+     */
+    private static int lowerBound(Object[][] rows, int from, int to, Object[] key, Comparator<Object[]> comparator) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (comparator.compare(rows[mid], key) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private static void runAll(List<Callable<Object>> tasks) throws InterruptedException, ExecutionException {
+        List<Future<Object>> futures = WorkerThreads.getExecutor().invokeAll(tasks);
+        for (Future<Object> future : futures) {
+            future.get();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Line reader for a file that keeps track of the byte offset of each line it
+ * returns, so that a line can later be read again directly from that offset.
+ * Lines are split on the bytes of their line terminators and then decoded,
+ * so offsets are counted in bytes of the file. This needs a character set
+ * that encodes line terminators and ASCII characters as single bytes, such as
+ * UTF-8 and the ISO-8859 family, as tested by <code>isSeekable</code>.
+ */
+public class PositionedLineReader extends BufferedReader {
+
+    private static final String ASCII_SAMPLE = "\r\nAz09,;\"";
+
+    private File file;
+    private Charset charset;
+    private InputStream in;
+    private byte[] buffer = new byte[8192];
+    private int bufferPos = 0;
+    private int bufferLength = 0;
+    private byte[] lineBytes = new byte[256];
+    private String terminator;
+    private long position = 0;
+    private long linePosition = -1;
+    /*
+     * Rest of a line with its terminator, partly returned by the read methods.
+     */
+    private String pending = null;
+    private int pendingPos = 0;
+
+    public PositionedLineReader(File file, Charset charset) throws IOException {
+        this(file, charset, new FileInputStream(file));
+    }
+
+    private PositionedLineReader(File file, Charset charset, InputStream in) {
+        super(new InputStreamReader(in, charset), 1);
+        if (!isSeekable(charset)) {
+            throw new IllegalArgumentException("Cannot track line positions for character set " + charset);
+        }
+        this.file = file;
+        this.charset = charset;
+        this.in = in;
+    }
+
+    /**
+     * @param charset character set of a file.
+     * @return true if line offsets can be tracked for files in this character set.
+     */
+    public static boolean isSeekable(Charset charset) {
+        byte[] bytes = new byte[ASCII_SAMPLE.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ASCII_SAMPLE.charAt(i);
+        }
+        return Arrays.equals(ASCII_SAMPLE.getBytes(charset), bytes);
+    }
+
+    /**
+     * @return byte offset in the file of the line last returned by <code>readLine</code>.
+     */
+    public long getLinePosition() {
+        return linePosition;
+    }
+
+    /**
+     * Open a new reader on the same file, starting at a byte offset previously
+     * returned by <code>getLinePosition</code>.
+     *
+     * @param file     random access handle for the file, owned by the caller.
+     * @param position byte offset of the line to start reading from.
+     * @return reader positioned at the start of the line.
+     * @throws IOException if the file cannot be read.
+     */
+    public BufferedReader openAt(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(file.getChannel()), charset));
+    }
+
+    /**
+     * @return file being read.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private boolean fill() throws IOException {
+        if (bufferPos < bufferLength) {
+            return true;
+        }
+        bufferLength = in.read(buffer, 0, buffer.length);
+        bufferPos = 0;
+        if (bufferLength <= 0) {
+            bufferLength = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read the bytes of the next line into the line buffer, and its line
+     * terminator, or an empty terminator at end of file.
+     *
+     * @return number of bytes of the line, or -1 at end of file.
+     */
+    private int readLineBytes() throws IOException {
+        int length = 0;
+        boolean found = false;
+        while (fill()) {
+            found = true;
+            int start = bufferPos;
+            while (bufferPos < bufferLength && buffer[bufferPos] != '\n' && buffer[bufferPos] != '\r') {
+                bufferPos++;
+            }
+            int n = bufferPos - start;
+            if (length + n > lineBytes.length) {
+                lineBytes = Arrays.copyOf(lineBytes, Math.max(length + n, lineBytes.length * 2));
+            }
+            System.arraycopy(buffer, start, lineBytes, length, n);
+            length += n;
+            position += n;
+            if (bufferPos < bufferLength) {
+                /*
+                 * Found end of line, skip over line terminator.
+                 */
+                byte b = buffer[bufferPos++];
+                position++;
+                if (b == '\r' && fill() && buffer[bufferPos] == '\n') {
+                    bufferPos++;
+                    position++;
+                    terminator = "\r\n";
+                } else {
+                    terminator = (b == '\r') ? "\r" : "\n";
+                }
+                return length;
+            }
+        }
+        terminator = "";
+        return found ? length : -1;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (pending != null) {
+            /*
+             * Rest of a line partly returned by the read methods.
+             */
+            int end = Math.max(pendingPos, pending.length() - terminator.length());
+            String rest = pending.substring(pendingPos, end);
+            pending = null;
+            linePosition = -1;
+            return rest;
+        }
+        linePosition = position;
+        int length = readLineBytes();
+        if (length < 0) {
+            return null;
+        }
+        return new String(lineBytes, 0, length, charset);
+    }
+
+    /**
+     * Make sure that there are characters of a line to return from the read methods.
+     *
+     * @return false at end of file.
+     */
+    private boolean fillPending() throws IOException {
+        while (pending == null || pendingPos == pending.length()) {
+            int length = readLineBytes();
+            if (length < 0) {
+                pending = null;
+                return false;
+            }
+            pending = new String(lineBytes, 0, length, charset) + terminator;
+            pendingPos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillPending()) {
+            return -1;
+        }
+        return pending.charAt(pendingPos++);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillPending()) {
+            return -1;
+        }
+        int n = Math.min(len, pending.length() - pendingPos);
+        pending.getChars(pendingPos, pendingPos + n, cbuf, off);
+        pendingPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fillPending()) {
+            int count = (int) Math.min(n - skipped, pending.length() - pendingPos);
+            pendingPos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return (pending != null && pendingPos < pending.length()) || bufferPos < bufferLength
+                || in.available() > 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
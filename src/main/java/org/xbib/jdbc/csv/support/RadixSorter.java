@@ -0,0 +1,135 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.util.Arrays;
+
+/**
+ * Stable most significant digit first radix sort of rows by byte array sort
+ * keys created by <code>SortKeyEncoder</code>. Rows are distributed into 256
+ * buckets by one byte of their key at a time, with small buckets finished
+ * by insertion sort.
+ */
+public class RadixSorter {
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    /**
+     * Sort rows by the sort key held in one slot of each row.
+     *
+     * @param rows    rows to sort, each with a non-null sort key.
+     * @param keySlot slot of each row holding its sort key.
+     */
+    public static void sort(Object[][] rows, int keySlot) {
+        int n = rows.length;
+        byte[][] keys = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (byte[]) rows[i][keySlot];
+        }
+        Object[][] rowsAux = new Object[n][];
+        byte[][] keysAux = new byte[n][];
+        int[] count = new int[258];
+
+        /*
+         * Stack of ranges still to sort, each as start, end, and key position.
+         * Ranges are pushed in reverse order so the stack stays small.
+         */
+        int[] stack = new int[3 * 64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n;
+        stack[top++] = 0;
+        while (top > 0) {
+            int depth = stack[--top];
+            int hi = stack[--top];
+            int lo = stack[--top];
+            if (hi - lo < INSERTION_SORT_THRESHOLD) {
+                insertionSort(rows, keys, lo, hi, depth);
+                continue;
+            }
+
+            /*
+             * Count keys for each byte value, with keys ending before this
+             * position counted first.
+             */
+            Arrays.fill(count, 0);
+            for (int i = lo; i < hi; i++) {
+                count[byteAt(keys[i], depth) + 2]++;
+            }
+            for (int b = 0; b < 257; b++) {
+                count[b + 1] += count[b];
+            }
+            for (int i = lo; i < hi; i++) {
+                int pos = count[byteAt(keys[i], depth) + 1]++;
+                rowsAux[pos] = rows[i];
+                keysAux[pos] = keys[i];
+            }
+            System.arraycopy(rowsAux, 0, rows, lo, hi - lo);
+            System.arraycopy(keysAux, 0, keys, lo, hi - lo);
+
+            /*
+             * Keys that have ended are all equal and already in their
+             * original order. Sort each byte value bucket by the next byte.
+             */
+            for (int b = 255; b >= 0; b--) {
+                int from = lo + count[b];
+                int to = lo + count[b + 1];
+                if (to - from > 1) {
+                    if (top + 3 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = from;
+                    stack[top++] = to;
+                    stack[top++] = depth + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return unsigned byte at position in key, or -1 if key is shorter.
+     */
+    private static int byteAt(byte[] key, int position) {
+        return (position < key.length) ? (key[position] & 0xFF) : -1;
+    }
+
+    private static void insertionSort(Object[][] rows, byte[][] keys, int lo, int hi, int depth) {
+        for (int i = lo + 1; i < hi; i++) {
+            Object[] row = rows[i];
+            byte[] key = keys[i];
+            int j = i;
+            while (j > lo && compareFrom(keys[j - 1], key, depth) > 0) {
+                rows[j] = rows[j - 1];
+                keys[j] = keys[j - 1];
+                j--;
+            }
+            rows[j] = row;
+            keys[j] = key;
+        }
+    }
+
+    private static int compareFrom(byte[] key1, byte[] key2, int depth) {
+        int n = Math.min(key1.length, key2.length);
+        for (int i = depth; i < n; i++) {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return key1.length - key2.length;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Compact binary encoding of result set rows, used when rows are written to
+ * temporary files. Each value is written as a one byte type tag followed by
+ * the value itself, so that the common SQL types take only a few bytes.
+ */
+public class RowSerializer {
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_DOUBLE = 4;
+    private static final int TYPE_FLOAT = 5;
+    private static final int TYPE_SHORT = 6;
+    private static final int TYPE_BYTE = 7;
+    private static final int TYPE_BOOLEAN_FALSE = 8;
+    private static final int TYPE_BOOLEAN_TRUE = 9;
+    private static final int TYPE_BIG_DECIMAL = 10;
+    private static final int TYPE_DATE = 11;
+    private static final int TYPE_TIME = 12;
+    private static final int TYPE_TIMESTAMP = 13;
+    private static final int TYPE_OBJECT = 15;
+    private static final int TYPE_BYTES = 16;
+
+    /**
+     * Write a row.
+     *
+     * @param out output to write to.
+     * @param row row values.
+     * @throws IOException if writing fails or a value cannot be serialized.
+     */
+    public static void writeRow(DataOutput out, Object[] row) throws IOException {
+        out.writeInt(row.length);
+        for (int i = 0; i < row.length; i++) {
+            writeValue(out, row[i]);
+        }
+    }
+
+    /**
+     * Read a row written by <code>writeRow</code>.
+     *
+     * @param in input to read from.
+     * @return row values.
+     * @throws IOException if reading fails.
+     */
+    public static Object[] readRow(DataInput in) throws IOException {
+        Object[] row = new Object[in.readInt()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = readValue(in);
+        }
+        return row;
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Long) value).longValue());
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort(((Short) value).shortValue());
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) value;
+            byte[] unscaled = bd.unscaledValue().toByteArray();
+            out.writeByte(TYPE_BIG_DECIMAL);
+            out.writeInt(bd.scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass() == Time.class) {
+            out.writeByte(TYPE_TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value.getClass() == Timestamp.class) {
+            Timestamp timestamp = (Timestamp) value;
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+            out.writeByte(TYPE_OBJECT);
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        } else {
+            throw new IOException("Cannot write value of type " + value.getClass().getName() + " to temporary file");
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INTEGER:
+                return Integer.valueOf(in.readInt());
+            case TYPE_LONG:
+                return Long.valueOf(in.readLong());
+            case TYPE_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TYPE_FLOAT:
+                return Float.valueOf(in.readFloat());
+            case TYPE_SHORT:
+                return Short.valueOf(in.readShort());
+            case TYPE_BYTE:
+                return Byte.valueOf(in.readByte());
+            case TYPE_BOOLEAN_FALSE:
+                return Boolean.FALSE;
+            case TYPE_BOOLEAN_TRUE:
+                return Boolean.TRUE;
+            case TYPE_BIG_DECIMAL: {
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readInt()];
+                in.readFully(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_TIME:
+                return new Time(in.readLong());
+            case TYPE_TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            }
+            case TYPE_BYTES: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case TYPE_OBJECT: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e.toString());
+                } finally {
+                    objectIn.close();
+                }
+            }
+            default:
+                throw new IOException("Invalid value type in temporary file: " + type);
+        }
+    }
+
+    /**
+     * Write a string as UTF-8 without the 64K length limit of <code>writeUTF</code>.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Estimate the number of bytes of memory used by a row.
+     *
+     * @param row row values.
+     * @return approximate size in bytes.
+     */
+    public static long estimateSize(Object[] row) {
+        long size = 16 + 8L * row.length;
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            if (value == null || value instanceof Boolean) {
+                continue;
+            } else if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof BigDecimal) {
+                size += 64;
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value instanceof SizeEstimated) {
+                size += ((SizeEstimated) value).estimateSize();
+            } else {
+                size += 24;
+            }
+        }
+        return size;
+    }
+}
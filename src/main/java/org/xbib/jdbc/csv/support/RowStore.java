@@ -0,0 +1,65 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.sql.SQLException;
+
+/**
+ * Storage for the rows of a result set that have to be kept after they have
+ * been read, because the rows must be sorted or grouped, or because the
+ * result set is scrollable.
+ */
+public interface RowStore {
+
+    /**
+     * Append a row to the store.
+     *
+     * @param row row values.
+     * @throws SQLException if the row cannot be stored.
+     */
+    void add(Object[] row) throws SQLException;
+
+    /**
+     * Get a row from the store.
+     *
+     * @param index row number, starting at 0.
+     * @return row values.
+     * @throws SQLException if the row cannot be read back.
+     */
+    Object[] get(int index) throws SQLException;
+
+    /**
+     * Allow a row to be discarded because it will not be read again.
+     *
+     * @param index row number, starting at 0.
+     */
+    void release(int index);
+
+    /**
+     * @return number of rows added to the store.
+     */
+    int size();
+
+    /**
+     * Remove all rows from the store.
+     */
+    void clear();
+
+    /**
+     * Free any resources held by the store.
+     */
+    void close();
+}
@@ -0,0 +1,185 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Encodes the ORDER BY values of a row into a single byte array, so that
+ * comparing the byte arrays of two rows as unsigned bytes gives the same
+ * order as comparing their values one by one.
+ * Each value is encoded as a null marker, a type marker and an order
+ * preserving encoding of the value. Integer and floating point numbers share
+ * one type marker, so that a column mixing them sorts by numeric value.
+ * All bytes of a value sorted in descending order are inverted. NULL sorts
+ * before all other values in ascending order and after them in descending
+ * order.
+ */
+public class SortKeyEncoder {
+
+    private static final int NULL = 0x00;
+    private static final int NOT_NULL = 0x01;
+
+    private static final int TYPE_NUMBER = 1;
+    private static final int TYPE_STRING = 2;
+    private static final int TYPE_DATE = 3;
+    private static final int TYPE_BOOLEAN = 4;
+
+    private int[] keySlots;
+    private int[] directions;
+    private byte[] buffer = new byte[64];
+    private int length;
+
+    /**
+     * Create an encoder.
+     *
+     * @param keySlots   slots holding the ORDER BY values of each row.
+     * @param directions 1 for each ascending value, -1 for each descending value.
+     */
+    public SortKeyEncoder(int[] keySlots, int[] directions) {
+        this.keySlots = keySlots;
+        this.directions = directions;
+    }
+
+    /**
+     * Encode the ORDER BY values of a row.
+     *
+     * @param row row holding ORDER BY values.
+     * @return sort key, or null if a value has a type that cannot be encoded.
+     */
+    public byte[] encode(Object[] row) {
+        length = 0;
+        for (int i = 0; i < keySlots.length; i++) {
+            int start = length;
+            if (!encodeValue(row[keySlots[i]])) {
+                return null;
+            }
+            if (directions[i] < 0) {
+                for (int j = start; j < length; j++) {
+                    buffer[j] = (byte) ~buffer[j];
+                }
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private boolean encodeValue(Object value) {
+        if (value == null) {
+            put(NULL);
+            return true;
+        }
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            long n = ((Number) value).longValue();
+            double d = (double) n;
+            put(NOT_NULL);
+            put(TYPE_NUMBER);
+            putDouble(d);
+            /*
+             * Longs beyond 2^53 are rounded to the nearest double, so
+             * add the difference to that double to keep them exact.
+             */
+            if (d >= 0x1p63) {
+                putLong(((n - Long.MAX_VALUE) - 1) ^ Long.MIN_VALUE);
+            } else {
+                putLong((n - (long) d) ^ Long.MIN_VALUE);
+            }
+        } else if (value instanceof Double || value instanceof Float) {
+            put(NOT_NULL);
+            put(TYPE_NUMBER);
+            putDouble(((Number) value).doubleValue());
+            putLong(Long.MIN_VALUE);
+        } else if (value instanceof String) {
+            String s = (String) value;
+            put(NOT_NULL);
+            put(TYPE_STRING);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == 0) {
+                    /*
+                     * Would be confused with end of string marker.
+                     */
+                    return false;
+                }
+                put(c >>> 8);
+                put(c);
+            }
+            put(0);
+            put(0);
+        } else if (value instanceof Date) {
+            Date date = (Date) value;
+            int nanos = (value instanceof Timestamp) ? ((Timestamp) value).getNanos() % 1000000 : 0;
+            put(NOT_NULL);
+            put(TYPE_DATE);
+            putLong(date.getTime() ^ Long.MIN_VALUE);
+            put(nanos >>> 24);
+            put(nanos >>> 16);
+            put(nanos >>> 8);
+            put(nanos);
+        } else if (value instanceof Boolean) {
+            put(NOT_NULL);
+            put(TYPE_BOOLEAN);
+            put(((Boolean) value).booleanValue() ? 1 : 0);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void put(int b) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void putDouble(double d) {
+        /*
+         * Flip sign bit of positive numbers and all bits of negative
+         * numbers to give the same order as Double.compareTo.
+         */
+        long bits = Double.doubleToLongBits(d);
+        putLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+    }
+
+    private void putLong(long n) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            put((int) (n >>> shift));
+        }
+    }
+
+    /**
+     * Compare two sort keys as unsigned bytes.
+     *
+     * @param key1 first sort key.
+     * @param key2 second sort key.
+     * @return negative, zero or positive if the first key sorts before, the
+     * same as or after the second key.
+     */
+    public static int compare(byte[] key1, byte[] key2) {
+        int n = Math.min(key1.length, key2.length);
+        for (int i = 0; i < n; i++) {
+            int b1 = key1[i] & 0xFF;
+            int b2 = key2[i] & 0xFF;
+            if (b1 != b2) {
+                return b1 - b2;
+            }
+        }
+        return key1.length - key2.length;
+    }
+}
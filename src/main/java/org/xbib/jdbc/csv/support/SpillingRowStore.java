@@ -0,0 +1,247 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Row store that keeps rows in memory while they fit in an estimated memory
+ * budget, and writes rows that do not fit to a temporary file. The offset
+ * of each row in the file is kept, so that any row can be read back directly.
+ * Released rows no longer count against the budget, so that rows added
+ * after them can be kept in memory again.
+ */
+public class SpillingRowStore implements RowStore {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private long memoryBudget;
+    private File tempDirectory;
+    private List<Object[]> rows = new ArrayList<Object[]>();
+    private long memoryUsed = 0;
+    private int[] spillSlots;
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long[] offsets = new long[0];
+    private int spilledCount = 0;
+    private long spillLength = 0;
+    private ByteArrayOutputStream writeBuffer;
+    private DataOutputStream writeOut;
+    private byte[] readBuffer;
+    private long readBufferStart = 0;
+    private int readBufferLength = 0;
+
+    /**
+     * Create a row store.
+     *
+     * @param memoryBudget  approximate number of bytes of rows to keep in memory.
+     * @param tempDirectory directory for the temporary file, or null for the
+     *                      default temporary directory.
+     */
+    public SpillingRowStore(long memoryBudget, File tempDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    public void add(Object[] row) throws SQLException {
+        long rowSize = RowSerializer.estimateSize(row);
+        if (memoryUsed + rowSize <= memoryBudget || memoryUsed == 0) {
+            setSpillSlot(rows.size(), -1);
+            rows.add(row);
+            memoryUsed += rowSize;
+            return;
+        }
+        if (spill == null) {
+            openSpillFile();
+        }
+        if (spilledCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(1024, spilledCount * 2));
+        }
+        offsets[spilledCount] = spillLength + writeBuffer.size();
+        setSpillSlot(rows.size(), spilledCount);
+        spilledCount++;
+        rows.add(null);
+        try {
+            RowSerializer.writeRow(writeOut, row);
+            if (writeBuffer.size() >= BUFFER_SIZE) {
+                flush();
+            }
+        } catch (IOException e) {
+            throw TempFiles.writeError(e);
+        }
+    }
+
+    public Object[] get(int index) throws SQLException {
+        if (index >= rows.size()) {
+            throw new IndexOutOfBoundsException("Row " + index + " not stored");
+        }
+        int spillIndex = (spillSlots != null) ? spillSlots[index] : -1;
+        if (spillIndex < 0) {
+            return rows.get(index);
+        }
+        try {
+            flush();
+            long start = offsets[spillIndex];
+            long end = (spillIndex + 1 < spilledCount) ? offsets[spillIndex + 1] : spillLength;
+            int length = (int) (end - start);
+            if (start < readBufferStart || end > readBufferStart + readBufferLength) {
+                /*
+                 * Fill buffer from start of this row, so that following rows
+                 * can be read without further file access.
+                 */
+                if (readBuffer == null || readBuffer.length < length) {
+                    readBuffer = new byte[Math.max(BUFFER_SIZE, length)];
+                }
+                spill.seek(start);
+                readBufferStart = start;
+                readBufferLength = (int) Math.min(readBuffer.length, spillLength - start);
+                spill.readFully(readBuffer, 0, readBufferLength);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBuffer,
+                    (int) (start - readBufferStart), length));
+            return RowSerializer.readRow(in);
+        } catch (IOException e) {
+            throw TempFiles.readError(e);
+        }
+    }
+
+    public void release(int index) {
+        if (index < rows.size()) {
+            Object[] row = rows.set(index, null);
+            if (row != null) {
+                /*
+                 * Row may have grown since it was added, when values such as
+                 * sort keys are evaluated into its slots.
+                 */
+                memoryUsed = Math.max(0, memoryUsed - RowSerializer.estimateSize(row));
+            }
+        }
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public void clear() {
+        rows.clear();
+        memoryUsed = 0;
+        deleteSpillFile();
+    }
+
+    public void close() {
+        rows = new ArrayList<Object[]>();
+        memoryUsed = 0;
+        deleteSpillFile();
+    }
+
+    /**
+     * Record where a row is stored. No slots are kept until the first row is
+     * written to the temporary file.
+     *
+     * @param index     row number.
+     * @param spillSlot index of the row in the temporary file, or -1 if the
+     *                  row is kept in memory.
+     */
+    private void setSpillSlot(int index, int spillSlot) {
+        if (spillSlots == null) {
+            if (spillSlot < 0) {
+                return;
+            }
+            spillSlots = new int[0];
+        }
+        if (index >= spillSlots.length) {
+            int oldLength = spillSlots.length;
+            spillSlots = Arrays.copyOf(spillSlots, Math.max(1024, index * 2));
+            Arrays.fill(spillSlots, oldLength, spillSlots.length, -1);
+        }
+        spillSlots[index] = spillSlot;
+    }
+
+    private void openSpillFile() throws SQLException {
+        try {
+            spillFile = TempFiles.create(tempDirectory);
+            spill = new RandomAccessFile(spillFile, "rw");
+        } catch (IOException e) {
+            if (spillFile != null) {
+                spillFile.delete();
+                spillFile = null;
+            }
+            throw TempFiles.writeError(e);
+        }
+        writeBuffer = new ByteArrayOutputStream(BUFFER_SIZE + 1024);
+        writeOut = new DataOutputStream(writeBuffer);
+    }
+
+    private void flush() throws IOException {
+        if (writeBuffer.size() > 0) {
+            spill.seek(spillLength);
+            writeBuffer.writeTo(new RandomAccessFileOutput(spill));
+            spillLength += writeBuffer.size();
+            writeBuffer.reset();
+        }
+    }
+
+    private void deleteSpillFile() {
+        if (spill != null) {
+            TempFiles.close(spill);
+            spillFile.delete();
+            spill = null;
+            spillFile = null;
+        }
+        spillSlots = null;
+        offsets = new long[0];
+        spilledCount = 0;
+        spillLength = 0;
+        writeBuffer = null;
+        writeOut = null;
+        readBuffer = null;
+        readBufferStart = 0;
+        readBufferLength = 0;
+    }
+
+    /**
+     * Adapter to copy the write buffer directly to the temporary file.
+     */
+    private static class RandomAccessFileOutput extends OutputStream {
+
+        private RandomAccessFile file;
+
+        RandomAccessFileOutput(RandomAccessFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            file.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Creation of the temporary files that rows are written to when they do not
+ * fit in the memory budget, and reporting of errors accessing them.
+ */
+public class TempFiles {
+
+    /**
+     * Create a temporary file. The file is not deleted on exit of the JVM,
+     * which would keep an entry for every file created until then, so the
+     * caller must delete it when closed or after an error.
+     *
+     * @param tempDirectory directory for the file, or null for the default
+     *                      temporary directory.
+     * @return new empty file.
+     * @throws IOException if the file cannot be created.
+     */
+    public static File create(File tempDirectory) throws IOException {
+        return File.createTempFile("csvjdbc", ".tmp", tempDirectory);
+    }
+
+    /**
+     * Close a stream or file of a temporary file that is about to be deleted.
+     *
+     * @param closeable stream or file to close, or null.
+     */
+    public static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore, file is deleted anyway
+            }
+        }
+    }
+
+    /**
+     * @param e error reading a temporary file.
+     * @return exception to throw for the error.
+     */
+    public static SQLException readError(IOException e) {
+        return new SQLException("Error reading temporary file. Message was: " + e);
+    }
+
+    /**
+     * @param e error creating or writing a temporary file.
+     * @return exception to throw for the error.
+     */
+    public static SQLException writeError(IOException e) {
+        return new SQLException("Error writing temporary file. Message was: " + e);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the first N rows in sorted order of all rows added, for queries with
+ * ORDER BY and LIMIT. Rows are held in a binary heap with the last of the
+ * kept rows at the top, so each row added takes O(log N) time and only N rows
+ * are kept in memory.
+ * Rows that compare equal are kept and returned in the order they were added,
+ * the same as a stable sort of all rows.
+ */
+public class TopNSorter {
+
+    private Comparator<Object[]> comparator;
+    private int maxRows;
+    private Object[][] heap;
+    private long[] sequence;
+    private int size = 0;
+    private long rowCount = 0;
+
+    /**
+     * Create a sorter.
+     *
+     * @param comparator order of rows.
+     * @param maxRows    number of rows to keep.
+     */
+    public TopNSorter(Comparator<Object[]> comparator, int maxRows) {
+        this.comparator = comparator;
+        this.maxRows = maxRows;
+        int capacity = Math.max(1, Math.min(maxRows, 1024));
+        this.heap = new Object[capacity][];
+        this.sequence = new long[capacity];
+    }
+
+    /**
+     * Add a row, discarding it immediately if it sorts after all rows kept.
+     *
+     * @param row row values.
+     */
+    public void add(Object[] row) {
+        long rowNumber = rowCount++;
+        if (size < maxRows) {
+            if (size == heap.length) {
+                int capacity = (int) Math.min((long) maxRows, 2L * heap.length);
+                heap = Arrays.copyOf(heap, capacity);
+                sequence = Arrays.copyOf(sequence, capacity);
+            }
+            heap[size] = row;
+            sequence[size] = rowNumber;
+            siftUp(size++);
+        } else if (maxRows > 0 && comparator.compare(row, heap[0]) < 0) {
+            /*
+             * Replace last row kept. A row comparing equal to it is not kept
+             * because it was added later.
+             */
+            heap[0] = row;
+            sequence[0] = rowNumber;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return rows kept, in sorted order.
+     */
+    public Object[][] getSortedRows() {
+        Object[][] sortedRows = new Object[size][];
+        /*
+         * Repeatedly remove last row from top of heap.
+         */
+        while (size > 0) {
+            sortedRows[size - 1] = heap[0];
+            size--;
+            heap[0] = heap[size];
+            sequence[0] = sequence[size];
+            heap[size] = null;
+            siftDown(0);
+        }
+        return sortedRows;
+    }
+
+    /**
+     * Compare two rows in the heap, ordering equal rows by when they were added.
+     */
+    private int compare(int i, int j) {
+        int retval = comparator.compare(heap[i], heap[j]);
+        if (retval == 0) {
+            retval = (sequence[i] < sequence[j]) ? -1 : ((sequence[i] > sequence[j]) ? 1 : 0);
+        }
+        return retval;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (compare(i, parent) <= 0) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && compare(child + 1, child) > 0) {
+                child++;
+            }
+            if (compare(child, i) <= 0) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Object[] row = heap[i];
+        heap[i] = heap[j];
+        heap[j] = row;
+        long n = sequence[i];
+        sequence[i] = sequence[j];
+        sequence[j] = n;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Comparisons of operands of different types. Comparisons are specialized
+ * by the column types, and must fall back to the general comparison when
+ * the values of a row have other types.
+ */
+public class ComparisonTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        FileWriter writer = new FileWriter(new File(dir, "m.csv"));
+        try {
+            writer.write("I,D,L,S,NS,G\n"
+                    + "1,1.0,1,a,1,p\n"
+                    + "2,2.5,20000000000,b,2,p\n"
+                    + "3,3.0,3,c,x,q\n"
+                    + "4,-1.0,-4,d,4,q\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "m.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testIntegerAndDouble() throws Exception {
+        assertEquals("[1, 3]", query("SELECT I FROM m WHERE I = D"));
+        assertEquals("[2]", query("SELECT I FROM m WHERE I < D"));
+        assertEquals("[4]", query("SELECT I FROM m WHERE D < I - 2"));
+        assertEquals("[1, 2]", query("SELECT I FROM m WHERE I < 2.5"));
+        assertEquals("[3]", query("SELECT I FROM m WHERE I = 3.0"));
+        assertEquals("[3]", query("SELECT I FROM m WHERE D = 3"));
+        assertEquals("[1, 2, 3]", query("SELECT I FROM m WHERE D >= 1"));
+    }
+
+    @Test
+    public void testLong() throws Exception {
+        assertEquals("[2]", query("SELECT I FROM m WHERE L > I"));
+        assertEquals("[3]", query("SELECT I FROM m WHERE L = 3"));
+        assertEquals("[4]", query("SELECT I FROM m WHERE L < 0.5"));
+        assertEquals("[2]", query("SELECT I FROM m WHERE L > 10000000000"));
+        assertEquals("[2]", query("SELECT I FROM m WHERE L = 20000000000"));
+    }
+
+    @Test
+    public void testStringAndNumber() throws Exception {
+        /*
+         * A string is not compared with a number, so no comparison is true.
+         */
+        assertEquals("[]", query("SELECT I FROM m WHERE NS = 2"));
+        assertEquals("[]", query("SELECT I FROM m WHERE S <> 1"));
+        assertEquals("[]", query("SELECT I FROM m WHERE 1 < S"));
+        assertEquals("[2]", query("SELECT I FROM m WHERE NS = '2'"));
+        assertEquals("[3, 4]", query("SELECT I FROM m WHERE NS > '2'"));
+    }
+
+    @Test
+    public void testLongAndDoubleSums() throws Exception {
+        /*
+         * SUM(D) is 3.5 for group p, but the whole number 2 for group q, so
+         * the same comparison has a Double operand for one group and a Long
+         * operand for the other.
+         */
+        assertEquals("[p]", query("SELECT G FROM m GROUP BY G HAVING SUM(D) > 2.5"));
+        assertEquals("[q]", query("SELECT G FROM m GROUP BY G HAVING SUM(D) = 2"));
+        assertEquals("[q]", query("SELECT G FROM m GROUP BY G HAVING SUM(D) < 3"));
+        assertEquals("[p, q]", query("SELECT G FROM m GROUP BY G HAVING SUM(D) >= SUM(I) / 2 - 1"));
+    }
+
+    private String query(String sql) throws SQLException {
+        Properties props = new Properties();
+        props.put("columnTypes", "Integer,Double,Long,String,String,String");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                List<String> values = new ArrayList<String>();
+                while (results.next()) {
+                    values.add(results.getString(1));
+                }
+                return values.toString();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * WHERE and HAVING clauses that are the same for every row. The table
+ * "bad" has a row with a missing column, so reading it fails, and a query
+ * on it only succeeds if no rows are read. Expressions with constant parts
+ * must give the same results as the expressions folded by hand.
+ */
+public class ConstantFoldingTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        write("t.csv", "ID,G,N\n"
+                + "1,a,1\n"
+                + "2,a,2\n"
+                + "3,b,3\n");
+        write("bad.csv", "ID,G,N\n"
+                + "1,a,1\n"
+                + "2,a\n");
+        write("f.csv", "X,Y\n"
+                + "0.1,0.2\n"
+                + "1.5,2.25\n"
+                + "-3,0.7\n");
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "t.csv").delete();
+        new File(dir, "bad.csv").delete();
+        new File(dir, "f.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testWhereNeverTrue() throws Exception {
+        assertEquals("[]", query("SELECT ID FROM t WHERE 1 = 2"));
+        assertEquals("[]", query("SELECT ID FROM bad WHERE 1 = 2"));
+        assertEquals("[]", query("SELECT * FROM bad WHERE NOT (1 + 1 = 2) ORDER BY ID"));
+        assertEquals("[0]", query("SELECT COUNT(ID) FROM bad WHERE 'a' = 'b'"));
+        assertEquals("[]", query("SELECT DISTINCT G FROM bad WHERE 1 > 2 AND ID > 0"));
+        try {
+            query("SELECT ID FROM bad WHERE 1 = 1");
+            fail("Reading table bad must fail");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFoldedEqualsUnfolded() throws Exception {
+        checkSameResult("SELECT ID FROM t WHERE N > 1 + 1", "SELECT ID FROM t WHERE N > 2");
+        checkSameResult("SELECT ID FROM t WHERE 2 < N", "SELECT ID FROM t WHERE N > 2");
+        checkSameResult("SELECT ID FROM t WHERE 2 >= N", "SELECT ID FROM t WHERE N <= 2");
+        checkSameResult("SELECT ID FROM t WHERE N >= 2 AND 1 = 1", "SELECT ID FROM t WHERE N >= 2");
+        checkSameResult("SELECT ID FROM t WHERE N = 1 OR 1 = 2", "SELECT ID FROM t WHERE N = 1");
+        checkSameResult("SELECT ID FROM t WHERE G = 'a' OR 1 = 1", "SELECT ID FROM t");
+        checkSameResult("SELECT ID * (2 + 3), N - 2 * 3 FROM t", "SELECT ID * 5, N - 6 FROM t");
+        checkSameResult("SELECT G, SUM(N * (1 + 1)) FROM t GROUP BY G HAVING SUM(N) > 1 * 2",
+                "SELECT G, SUM(N * 2) FROM t GROUP BY G HAVING SUM(N) > 2");
+
+        /*
+         * Constants are folded with the same double arithmetic that is used
+         * for Double columns.
+         */
+        checkSameResult("SELECT X + Y, X * 3, X / 4 FROM f WHERE X = 0.1",
+                "SELECT 0.1 + 0.2, 0.1 * 3, 0.1 / 4 FROM f WHERE X = 0.1");
+        checkSameResult("SELECT X FROM f WHERE X + Y = 0.1 + 0.2", "SELECT X FROM f WHERE X = 0.1");
+        checkSameResult("SELECT X FROM f WHERE X + Y > 0.1 + 0.2", "SELECT X FROM f WHERE X > 1");
+    }
+
+    @Test
+    public void testHavingNeverTrue() throws Exception {
+        assertEquals("[]", query("SELECT G, COUNT(ID) FROM t GROUP BY G HAVING 1 = 2"));
+        assertEquals("[]", query("SELECT G, COUNT(ID) FROM bad GROUP BY G HAVING 1 = 2"));
+        assertEquals("[]", query("SELECT G FROM bad GROUP BY G HAVING 'x' = 'y'"));
+        try {
+            query("SELECT G, COUNT(ID) FROM bad GROUP BY G HAVING 1 = 1");
+            fail("Reading table bad must fail");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHavingAlwaysTrue() throws Exception {
+        assertEquals("[a|2, b|1]", query("SELECT G, COUNT(ID) FROM t GROUP BY G HAVING 1 + 1 = 2"));
+        assertEquals("[a, b]", query("SELECT G FROM t GROUP BY G HAVING 1 = 1 ORDER BY G"));
+    }
+
+    private void checkSameResult(String folded, String unfolded) throws SQLException {
+        String expected = query(unfolded);
+        assertEquals(folded, expected, query(folded));
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        FileWriter writer = new FileWriter(new File(dir, fileName));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String query(String sql) throws SQLException {
+        Properties props = new Properties();
+        props.put("columnTypes", "Integer,String,Integer");
+        props.put("columnTypes.f", "Double,Double");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            row.append('|');
+                        }
+                        row.append(results.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+                return rows.toString();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * COUNT(DISTINCT) and APPROX_COUNT_DISTINCT, checked against the number
+ * of distinct values counted while writing the table.
+ */
+public class CountDistinctTest {
+
+    /**
+     * Three standard errors of a HyperLogLog sketch with 2^14 registers.
+     */
+    private static final double MAX_ERROR = 3 * 1.04 / Math.sqrt(1 << 14);
+
+    private static final int GROUPS = 3;
+
+    private File dir;
+
+    private Set<Integer> values;
+
+    private List<Set<Integer>> groupValues;
+
+    private Set<String> strings;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        values = new HashSet<Integer>();
+        groupValues = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < GROUPS; i++) {
+            groupValues.add(new HashSet<Integer>());
+        }
+        strings = new HashSet<String>();
+        Random random = new Random(1);
+        FileWriter writer = new FileWriter(new File(dir, "d.csv"));
+        try {
+            writer.write("ID,G,V,S\n");
+            for (int i = 0; i < 20000; i++) {
+                int v = random.nextInt(30000);
+                String s = "s" + random.nextInt(37);
+                values.add(Integer.valueOf(v));
+                groupValues.get(i % GROUPS).add(Integer.valueOf(v));
+                strings.add(s);
+                writer.write(i + ",g" + (i % GROUPS) + "," + v + "," + s + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "d.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testCountDistinct() throws Exception {
+        assertEquals(values.size() + "|" + strings.size(),
+                query("SELECT COUNT(DISTINCT V), COUNT(DISTINCT S) FROM d", new Properties()).get(0));
+        List<String> rows = query("SELECT G, COUNT(DISTINCT V) FROM d GROUP BY G", new Properties());
+        assertEquals(GROUPS, rows.size());
+        for (int i = 0; i < GROUPS; i++) {
+            assertEquals("g" + i + "|" + groupValues.get(i).size(), rows.get(i));
+        }
+    }
+
+    @Test
+    public void testApproxCountDistinct() throws Exception {
+        List<String> row = query("SELECT APPROX_COUNT_DISTINCT(V), APPROX_COUNT_DISTINCT(S) FROM d", new Properties());
+        String[] estimates = row.get(0).split("\\|");
+        assertEstimate(values.size(), Long.parseLong(estimates[0]));
+        assertEstimate(strings.size(), Long.parseLong(estimates[1]));
+        List<String> rows = query("SELECT G, APPROX_COUNT_DISTINCT(V) FROM d GROUP BY G", new Properties());
+        for (int i = 0; i < GROUPS; i++) {
+            assertEstimate(groupValues.get(i).size(), Long.parseLong(rows.get(i).split("\\|")[1]));
+        }
+    }
+
+    @Test
+    public void testSpilledAndParallel() throws Exception {
+        String sql = "SELECT G, COUNT(DISTINCT V), APPROX_COUNT_DISTINCT(V) FROM d GROUP BY G";
+        List<String> expected = query(sql, new Properties());
+        Properties spill = new Properties();
+        spill.put("memoryBudget", "1");
+        assertEquals(expected, query(sql, spill));
+        /*
+         * Merging sketches keeps the maximum of each register, so sketches
+         * merged from several threads give exactly the same estimate.
+         */
+        Properties parallel = new Properties();
+        parallel.put("parallelAggregationThreshold", "2");
+        assertEquals(expected, query(sql, parallel));
+    }
+
+    private void assertEstimate(long exact, long estimate) {
+        assertTrue(estimate + " estimates " + exact, Math.abs(estimate - exact) <= MAX_ERROR * exact);
+    }
+
+    private List<String> query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "Integer,String,Integer,String");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            row.append('|');
+                        }
+                        row.append(results.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+                return rows;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * GROUP BY on tables declared sorted by the GROUP BY columns with the
+ * sortedBy property, where each group is returned as soon as it is read.
+ */
+public class GroupByTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        write("asc.csv", "G,H,N\n"
+                + "a,x,1\n"
+                + "a,x,2\n"
+                + "a,y,3\n"
+                + "b,x,4\n"
+                + "c,x,5\n"
+                + "c,y,6\n"
+                + "c,y,7\n");
+        write("desc.csv", "G,H,N\n"
+                + "c,y,7\n"
+                + "c,x,5\n"
+                + "b,x,4\n"
+                + "a,y,3\n"
+                + "a,x,1\n");
+        write("unsorted.csv", "G,H,N\n"
+                + "a,x,1\n"
+                + "b,x,2\n"
+                + "a,y,3\n");
+        StringBuilder ints = new StringBuilder("K,N\n");
+        for (int i = 0; i < 300; i++) {
+            ints.append(i * 37 % 60 - 10).append(',').append(i).append('\n');
+        }
+        write("ints.csv", ints.toString());
+        write("sparse.csv", "K,N\n"
+                + "1,1\n"
+                + "2,2\n"
+                + "100000,3\n"
+                + "1,4\n"
+                + "-100000,5\n"
+                + "2,6\n");
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "asc.csv").delete();
+        new File(dir, "desc.csv").delete();
+        new File(dir, "unsorted.csv").delete();
+        new File(dir, "ints.csv").delete();
+        new File(dir, "sparse.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testSortedAscending() throws Exception {
+        String sql = "SELECT G, COUNT(N), SUM(N) FROM asc GROUP BY G";
+        assertEquals("[a|3|6, b|1|4, c|3|18]", query(sql, "G"));
+        assertEquals(query(sql, (String) null), query(sql, "G"));
+    }
+
+    @Test
+    public void testSortedDescending() throws Exception {
+        String sql = "SELECT G, MAX(N) FROM desc GROUP BY G";
+        assertEquals("[c|7, b|4, a|3]", query(sql, "G DESC"));
+        assertEquals(query(sql, (String) null), query(sql, "G DESC"));
+    }
+
+    @Test
+    public void testSortedByTwoColumns() throws Exception {
+        String sql = "SELECT H, G, SUM(N) FROM asc GROUP BY H, G";
+        assertEquals("[x|a|3, y|a|3, x|b|4, x|c|5, y|c|13]", query(sql, "G, H"));
+        assertEquals(query(sql, (String) null), query(sql, "G, H"));
+    }
+
+    @Test
+    public void testSortedHaving() throws Exception {
+        assertEquals("[a|3, c|3]", query("SELECT G, COUNT(N) FROM asc GROUP BY G HAVING COUNT(N) > 1", "G"));
+    }
+
+    @Test
+    public void testSortedDistinct() throws Exception {
+        assertEquals("[a, b, c]", query("SELECT DISTINCT G FROM asc", "G"));
+    }
+
+    @Test
+    public void testNotSorted() throws Exception {
+        try {
+            query("SELECT G, COUNT(N) FROM unsorted GROUP BY G", "G");
+            fail("Group a after group b must fail");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not sorted by G"));
+        }
+        try {
+            query("SELECT DISTINCT G FROM unsorted", "G");
+            fail("Value a after value b must fail");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not sorted by G"));
+        }
+        try {
+            query("SELECT G, COUNT(N) FROM asc GROUP BY G", "G DESC");
+            fail("Ascending table declared descending must fail");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not sorted by G DESC"));
+        }
+    }
+
+    @Test
+    public void testInvalidSortedBy() throws Exception {
+        try {
+            query("SELECT G, COUNT(N) FROM asc GROUP BY G", "G UP");
+            fail("Invalid sortedBy must fail");
+        } catch (SQLException e) {
+            assertEquals("Invalid sortedBy: G UP", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDenseIntegerKeys() throws Exception {
+        Map<Integer, int[]> groups = new LinkedHashMap<Integer, int[]>();
+        for (int i = 0; i < 300; i++) {
+            Integer key = Integer.valueOf(i * 37 % 60 - 10);
+            int[] group = groups.get(key);
+            if (group == null) {
+                group = new int[2];
+                groups.put(key, group);
+            }
+            group[0]++;
+            group[1] += i;
+        }
+        List<String> expected = new ArrayList<String>();
+        for (Map.Entry<Integer, int[]> entry : groups.entrySet()) {
+            expected.add(entry.getKey() + "|" + entry.getValue()[0] + "|" + entry.getValue()[1]);
+        }
+        String sql = "SELECT K, COUNT(N), SUM(N) FROM ints GROUP BY K";
+        assertEquals(expected.toString(), query(sql, (String) null));
+        Properties parallel = new Properties();
+        parallel.put("parallelAggregationThreshold", "2");
+        assertEquals(expected.toString(), query(sql, parallel));
+    }
+
+    @Test
+    public void testSparseIntegerKeys() throws Exception {
+        /*
+         * Key 100000 is too far from keys 1 and 2 to index them in one array.
+         */
+        assertEquals("[1|5, 2|8, 100000|3, -100000|5]",
+                query("SELECT K, SUM(N) FROM sparse GROUP BY K", (String) null));
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        FileWriter writer = new FileWriter(new File(dir, fileName));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String query(String sql, String sortedBy) throws SQLException {
+        Properties props = new Properties();
+        if (sortedBy != null) {
+            props.put("sortedBy", sortedBy);
+        }
+        return query(sql, props);
+    }
+
+    private String query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "String,String,Integer");
+        props.put("columnTypes.ints", "Integer,Integer");
+        props.put("columnTypes.sparse", "Integer,Integer");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            row.append('|');
+                        }
+                        row.append(results.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+                return rows.toString();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ROLLUP, CUBE and GROUPING SETS. Columns not in the grouping set of a
+ * row are NULL. Rows are compared sorted, because the order of groups
+ * from different grouping sets is not defined.
+ */
+public class GroupingSetsTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        FileWriter writer = new FileWriter(new File(dir, "r.csv"));
+        try {
+            writer.write("A,B,N\n"
+                    + "x,p,1\n"
+                    + "x,q,2\n"
+                    + "y,p,3\n"
+                    + "y,p,4\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "r.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testRollup() throws Exception {
+        assertEquals("[null|null|10|4, x|null|3|2, x|p|1|1, x|q|2|1, y|null|7|2, y|p|7|2]",
+                query("SELECT A, B, SUM(N), COUNT(N) FROM r GROUP BY ROLLUP(A, B)", new Properties()));
+    }
+
+    @Test
+    public void testCube() throws Exception {
+        assertEquals("[null|null|10, null|p|8, null|q|2, x|null|3, x|p|1, x|q|2, y|null|7, y|p|7]",
+                query("SELECT A, B, SUM(N) FROM r GROUP BY CUBE(A, B)", new Properties()));
+    }
+
+    @Test
+    public void testGroupingSets() throws Exception {
+        assertEquals("[null|null|10, null|p|8, null|q|2, x|null|3, y|null|7]",
+                query("SELECT A, B, SUM(N) FROM r GROUP BY GROUPING SETS ((A), (B), ())", new Properties()));
+        assertEquals("[null|p|4, null|q|2, x|p|1, x|q|2, y|p|4]",
+                query("SELECT A, B, MAX(N) FROM r GROUP BY GROUPING SETS ((A, B), B)", new Properties()));
+    }
+
+    @Test
+    public void testHaving() throws Exception {
+        assertEquals("[null|null|10, y|null|7, y|p|7]",
+                query("SELECT A, B, SUM(N) FROM r GROUP BY ROLLUP(A, B) HAVING SUM(N) > 5", new Properties()));
+    }
+
+    @Test
+    public void testSpilledAndParallel() throws Exception {
+        String sql = "SELECT A, B, SUM(N), COUNT(N) FROM r GROUP BY CUBE(A, B)";
+        String expected = query(sql, new Properties());
+        Properties spill = new Properties();
+        spill.put("memoryBudget", "1");
+        assertEquals(expected, query(sql, spill));
+        Properties parallel = new Properties();
+        parallel.put("parallelAggregationThreshold", "2");
+        assertEquals(expected, query(sql, parallel));
+    }
+
+    private String query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "String,String,Integer");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            row.append('|');
+                        }
+                        row.append(results.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+                Collections.sort(rows);
+                return rows.toString();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
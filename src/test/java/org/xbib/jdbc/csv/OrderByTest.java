@@ -0,0 +1,110 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ORDER BY on a column mixing whole and fractional numbers. SUM over a
+ * Double column returns a Long for a whole sum, so the ORDER BY values
+ * are a mix of Long and Double that must sort by numeric value.
+ */
+public class OrderByTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        FileWriter writer = new FileWriter(new File(dir, "m.csv"));
+        try {
+            writer.write("G,P\n"
+                    + "a,0.5\n"
+                    + "b,1.25\nb,1\n"
+                    + "c,10.1\n"
+                    + "d,1\nd,2\n"
+                    + "e,0.25\ne,0.25\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "m.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testMixedNumbersAscending() throws Exception {
+        assertEquals("[0.5, 0.5, 2.25, 3, 10.1]",
+                query("SELECT G, SUM(P) FROM m GROUP BY G ORDER BY SUM(P)"));
+    }
+
+    @Test
+    public void testMixedNumbersDescending() throws Exception {
+        assertEquals("[10.1, 3, 2.25, 0.5, 0.5]",
+                query("SELECT G, SUM(P) FROM m GROUP BY G ORDER BY SUM(P) DESC"));
+    }
+
+    @Test
+    public void testMixedNumbersLimit() throws Exception {
+        assertEquals("[0.5, 0.5, 2.25]",
+                query("SELECT G, SUM(P) FROM m GROUP BY G ORDER BY SUM(P) LIMIT 3"));
+        assertEquals("[10.1, 3]",
+                query("SELECT G, SUM(P) FROM m GROUP BY G ORDER BY SUM(P) DESC LIMIT 2"));
+    }
+
+    private String query(String sql) throws IOException, SQLException {
+        Properties props = new Properties();
+        props.put("columnTypes", "String,Double");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                List<String> values = new ArrayList<String>();
+                while (results.next()) {
+                    values.add(results.getString(2));
+                }
+                return values.toString();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * APPROX_PERCENTILE and MEDIAN, checked by finding the rank of the returned
+ * value among the values written to the table. Group s has fewer values
+ * than fit in the sketch, so its results are exact. Group b has enough
+ * values to be compacted, and ranks are within one percent.
+ */
+public class PercentileTest {
+
+    private static final int SMALL = 150;
+
+    private static final int BIG = 20000;
+
+    private File dir;
+
+    private double[] small;
+
+    private double[] big;
+
+    private double[] all;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        small = new double[SMALL];
+        big = new double[BIG];
+        all = new double[SMALL + BIG];
+        Random random = new Random(2);
+        FileWriter writer = new FileWriter(new File(dir, "q.csv"));
+        try {
+            writer.write("ID,G,X\n");
+            for (int i = 0; i < all.length; i++) {
+                double x = Math.round(random.nextGaussian() * 10000) / 100.0;
+                all[i] = x;
+                if (i < SMALL) {
+                    small[i] = x;
+                } else {
+                    big[i - SMALL] = x;
+                }
+                writer.write(i + "," + (i < SMALL ? "s" : "b") + "," + x + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        Arrays.sort(small);
+        Arrays.sort(big);
+        Arrays.sort(all);
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "q.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testMedianWithinOneRank() throws Exception {
+        assertRank(small, 0.5, query("SELECT MEDIAN(X) FROM q WHERE G = 's'", new Properties()).get(0), 1);
+    }
+
+    @Test
+    public void testSmallGroupExact() throws Exception {
+        List<String> row = query("SELECT APPROX_PERCENTILE(X, 0.1), APPROX_PERCENTILE(X, 0.75) "
+                + "FROM q WHERE G = 's'", new Properties());
+        String[] values = row.get(0).split("\\|");
+        assertRank(small, 0.1, values[0], 0);
+        assertRank(small, 0.75, values[1], 0);
+    }
+
+    @Test
+    public void testApproxPercentile() throws Exception {
+        List<String> row = query("SELECT MEDIAN(X), APPROX_PERCENTILE(X, 0.05), APPROX_PERCENTILE(X, 0.9) "
+                + "FROM q", new Properties());
+        String[] values = row.get(0).split("\\|");
+        assertRank(all, 0.5, values[0], all.length / 100);
+        assertRank(all, 0.05, values[1], all.length / 100);
+        assertRank(all, 0.9, values[2], all.length / 100);
+    }
+
+    @Test
+    public void testMinimumAndMaximum() throws Exception {
+        List<String> row = query("SELECT APPROX_PERCENTILE(X, 0), APPROX_PERCENTILE(X, 1) FROM q", new Properties());
+        assertEquals(all[0] + "|" + all[all.length - 1], row.get(0));
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        String sql = "SELECT G, MEDIAN(X) FROM q GROUP BY G";
+        List<String> rows = query(sql, new Properties());
+        assertEquals(2, rows.size());
+        assertRank(small, 0.5, rows.get(0).substring(2), 1);
+        assertRank(big, 0.5, rows.get(1).substring(2), big.length / 100);
+
+        /*
+         * Sketches merged from several threads are within the same error.
+         */
+        Properties parallel = new Properties();
+        parallel.put("parallelAggregationThreshold", "2");
+        rows = query(sql, parallel);
+        assertRank(small, 0.5, rows.get(0).substring(2), 1);
+        assertRank(big, 0.5, rows.get(1).substring(2), big.length / 100);
+    }
+
+    /**
+     * Check that a value is one of the sorted values, at a rank no further
+     * than maxError from the rank of the fraction.
+     */
+    private void assertRank(double[] sorted, double fraction, String result, int maxError) {
+        double value = Double.parseDouble(result);
+        int low = 0;
+        while (low < sorted.length && sorted[low] < value) {
+            low++;
+        }
+        int high = low;
+        while (high < sorted.length && sorted[high] == value) {
+            high++;
+        }
+        assertTrue(result + " is not a value in the table", high > low);
+        int rank = Math.max(0, (int) Math.ceil(fraction * sorted.length) - 1);
+        int error = (rank < low) ? low - rank : (rank >= high) ? rank - high + 1 : 0;
+        assertTrue(result + " is " + error + " ranks from percentile " + fraction, error <= maxError);
+    }
+
+    private List<String> query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "Integer,String,Double");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        if (i > 1) {
+                            row.append('|');
+                        }
+                        row.append(results.getString(i));
+                    }
+                    rows.add(row.toString());
+                }
+                return rows;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
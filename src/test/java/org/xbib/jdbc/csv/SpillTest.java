@@ -0,0 +1,201 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queries that sort, group or remove duplicate rows must give the same
+ * results when rows are written to temporary files and when several threads
+ * are used, as when all rows are kept in memory in one thread.
+ */
+public class SpillTest {
+
+    private static final int ROWS = 3000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        Random random = new Random(42);
+        FileWriter writer = new FileWriter(new File(dir, "t.csv"));
+        try {
+            writer.write("ID,G,N,P,S\n");
+            for (int i = 0; i < ROWS; i++) {
+                writer.write(i + ",g" + random.nextInt(200) + "," + random.nextInt(50) + ","
+                        + (random.nextInt(400) - 100) / 4.0 + ",s" + random.nextInt(1000) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "t.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testOrderBy() throws Exception {
+        checkQuery("SELECT ID, P FROM t ORDER BY P, ID");
+        checkQuery("SELECT ID, S FROM t ORDER BY S DESC, N, ID");
+        checkQuery("SELECT * FROM t ORDER BY G, P DESC, ID LIMIT 20 OFFSET 7");
+    }
+
+    @Test
+    public void testOrderByMixedNumbers() throws Exception {
+        checkQuery("SELECT G, SUM(P) FROM t GROUP BY G ORDER BY SUM(P), G");
+        checkQuery("SELECT G, SUM(P) FROM t GROUP BY G ORDER BY SUM(P) DESC, G");
+        checkQuery("SELECT G, SUM(P) FROM t GROUP BY G ORDER BY SUM(P), G LIMIT 10");
+    }
+
+    @Test
+    public void testGroupBy() throws Exception {
+        checkQuery("SELECT G, COUNT(*), MIN(N), MAX(P), SUM(N), AVG(P) FROM t GROUP BY G");
+        checkQuery("SELECT N, COUNT(*), MIN(S) FROM t GROUP BY N");
+        checkQuery("SELECT G, N, COUNT(*) FROM t GROUP BY G, N HAVING COUNT(*) > 1");
+        checkQuery("SELECT COUNT(*), SUM(P), MAX(S) FROM t");
+    }
+
+    @Test
+    public void testDistinct() throws Exception {
+        checkQuery("SELECT DISTINCT G FROM t");
+        checkQuery("SELECT DISTINCT G, N FROM t");
+        checkQuery("SELECT DISTINCT N FROM t ORDER BY N DESC");
+        checkQuery("SELECT DISTINCT S FROM t LIMIT 25");
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        checkQuery("SELECT ID FROM t ORDER BY S, ID LIMIT 5");
+        checkQuery("SELECT G, COUNT(ID) FROM t GROUP BY G ORDER BY COUNT(ID) DESC, G LIMIT 3 OFFSET 2");
+    }
+
+    @Test
+    public void testScrollableDistinct() throws Exception {
+        checkScrollable("SELECT DISTINCT S FROM t");
+    }
+
+    @Test
+    public void testScrollableOrderBy() throws Exception {
+        checkScrollable("SELECT ID FROM t ORDER BY S DESC, ID");
+    }
+
+    /**
+     * Run a query in a scrollable result set with rows written to temporary
+     * files, and check that the rows can be read again and moved to.
+     */
+    private void checkScrollable(String sql) throws SQLException {
+        List<String> expected = query(sql, new Properties());
+        Properties props = new Properties();
+        props.put("memoryBudget", "1");
+        props.put("columnTypes", "Integer,String,Integer,Double,String");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                for (int pass = 0; pass < 2; pass++) {
+                    List<String> rows = new ArrayList<String>();
+                    while (results.next()) {
+                        rows.add(results.getString(1) + "|");
+                    }
+                    assertEquals(expected, rows);
+                    results.beforeFirst();
+                }
+                assertTrue(results.last());
+                assertEquals(expected.get(expected.size() - 1), results.getString(1) + "|");
+                assertTrue(results.absolute(2));
+                assertEquals(expected.get(1), results.getString(1) + "|");
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Run a query with the default settings and with settings that write
+     * rows to temporary files and use several threads, and check that the
+     * results are the same.
+     */
+    private void checkQuery(String sql) throws SQLException {
+        List<String> expected = query(sql, new Properties());
+        assertTrue(sql, expected.size() > 0);
+
+        Properties spill = new Properties();
+        spill.put("memoryBudget", "1");
+        assertEquals(sql, expected, query(sql, spill));
+
+        Properties parallel = new Properties();
+        parallel.put("parallelSortThreshold", "2");
+        parallel.put("parallelAggregationThreshold", "2");
+        assertEquals(sql, expected, query(sql, parallel));
+
+        Properties both = new Properties();
+        both.putAll(parallel);
+        both.putAll(spill);
+        assertEquals(sql, expected, query(sql, both));
+    }
+
+    private List<String> query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "Integer,String,Integer,Double,String");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<String> rows = new ArrayList<String>();
+                while (results.next()) {
+                    StringBuilder row = new StringBuilder();
+                    for (int i = 1; i <= columnCount; i++) {
+                        row.append(results.getString(i)).append('|');
+                    }
+                    rows.add(row.toString());
+                }
+                return rows;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
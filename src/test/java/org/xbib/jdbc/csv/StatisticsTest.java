@@ -0,0 +1,198 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * VARIANCE, STDDEV and COVAR aggregates, checked against values computed
+ * with two passes over the values written to the table. Values are far
+ * from zero, where the naive one pass formula loses most digits.
+ */
+public class StatisticsTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    private File dir;
+
+    private double[][] groupX;
+
+    private double[][] groupY;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.xbib.jdbc.csv.CsvDriver");
+        dir = File.createTempFile("csvjdbc", "");
+        dir.delete();
+        dir.mkdir();
+        groupX = new double[][]{new double[1000], new double[500]};
+        groupY = new double[][]{new double[1000], new double[500]};
+        Random random = new Random(3);
+        FileWriter writer = new FileWriter(new File(dir, "s.csv"));
+        try {
+            writer.write("ID,G,X,Y\n");
+            int id = 0;
+            for (int g = 0; g < groupX.length; g++) {
+                for (int i = 0; i < groupX[g].length; i++) {
+                    double x = 100000 + Math.round(random.nextGaussian() * 1000) / 100.0;
+                    double y = Math.round((2 * x + random.nextGaussian() * 5) * 100) / 100.0;
+                    groupX[g][i] = x;
+                    groupY[g][i] = y;
+                    writer.write(id++ + ",g" + g + "," + x + "," + y + "\n");
+                }
+            }
+            writer.write(id + ",single,1.5,2.5\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        new File(dir, "s.csv").delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testVariance() throws Exception {
+        double[] x = groupX[0];
+        double[] row = queryNumbers("SELECT VARIANCE(X), VAR_SAMP(X), VAR_POP(X) FROM s WHERE G = 'g0'");
+        assertClose(covariance(x, x, true), row[0]);
+        assertClose(covariance(x, x, true), row[1]);
+        assertClose(covariance(x, x, false), row[2]);
+    }
+
+    @Test
+    public void testStandardDeviation() throws Exception {
+        double[] x = groupX[0];
+        double[] row = queryNumbers("SELECT STDDEV(X), STDDEV_SAMP(X), STDDEV_POP(X) FROM s WHERE G = 'g0'");
+        assertClose(Math.sqrt(covariance(x, x, true)), row[0]);
+        assertClose(Math.sqrt(covariance(x, x, true)), row[1]);
+        assertClose(Math.sqrt(covariance(x, x, false)), row[2]);
+    }
+
+    @Test
+    public void testCovariance() throws Exception {
+        double[] row = queryNumbers("SELECT COVAR_SAMP(X, Y), COVAR_POP(X, Y), COVAR_POP(Y, X) FROM s WHERE G = 'g0'");
+        assertClose(covariance(groupX[0], groupY[0], true), row[0]);
+        assertClose(covariance(groupX[0], groupY[0], false), row[1]);
+        assertClose(covariance(groupX[0], groupY[0], false), row[2]);
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        checkGroups(new Properties());
+
+        /*
+         * Groups aggregated in several threads are merged with the same result.
+         */
+        Properties parallel = new Properties();
+        parallel.put("parallelAggregationThreshold", "2");
+        checkGroups(parallel);
+    }
+
+    private void checkGroups(Properties props) throws SQLException {
+        List<Object[]> rows = query("SELECT G, VAR_SAMP(X), STDDEV_POP(Y), COVAR_SAMP(X, Y) FROM s GROUP BY G", props);
+        assertEquals(3, rows.size());
+        for (int g = 0; g < groupX.length; g++) {
+            Object[] row = rows.get(g);
+            assertEquals("g" + g, row[0]);
+            assertClose(covariance(groupX[g], groupX[g], true), ((Number) row[1]).doubleValue());
+            assertClose(Math.sqrt(covariance(groupY[g], groupY[g], false)), ((Number) row[2]).doubleValue());
+            assertClose(covariance(groupX[g], groupY[g], true), ((Number) row[3]).doubleValue());
+        }
+
+        /*
+         * The sample variance of a single value is NULL, its population variance 0.
+         */
+        Object[] single = rows.get(2);
+        assertEquals("single", single[0]);
+        assertNull(single[1]);
+        assertEquals(0.0, ((Number) single[2]).doubleValue(), 0.0);
+        assertNull(single[3]);
+    }
+
+    private static double covariance(double[] x, double[] y, boolean sample) {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < x.length; i++) {
+            meanX += x[i];
+            meanY += y[i];
+        }
+        meanX /= x.length;
+        meanY /= y.length;
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += (x[i] - meanX) * (y[i] - meanY);
+        }
+        return sum / (sample ? x.length - 1 : x.length);
+    }
+
+    private static void assertClose(double expected, double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * TOLERANCE);
+    }
+
+    private double[] queryNumbers(String sql) throws SQLException {
+        Object[] row = query(sql, new Properties()).get(0);
+        double[] numbers = new double[row.length];
+        for (int i = 0; i < row.length; i++) {
+            numbers[i] = ((Number) row[i]).doubleValue();
+        }
+        return numbers;
+    }
+
+    private List<Object[]> query(String sql, Properties props) throws SQLException {
+        props.put("columnTypes", "Integer,String,Double,Double");
+        Connection conn = DriverManager.getConnection("jdbc:csv:" + dir.getPath(), props);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet results = stmt.executeQuery(sql);
+                int columnCount = results.getMetaData().getColumnCount();
+                List<Object[]> rows = new ArrayList<Object[]>();
+                while (results.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 1; i <= columnCount; i++) {
+                        row[i - 1] = results.getObject(i);
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PositionedLineReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /*
+     * Lines with two and three byte characters, a surrogate pair and each
+     * kind of line terminator, and a last line without terminator.
+     */
+    private static final String[] LINES = {
+            "ID,NAME", "1,Müller", "2,€😀x", "", "3,😀😀", "4,end"
+    };
+    private static final String[] TERMINATORS = {"\n", "\r\n", "\n", "\r", "\r\n", ""};
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("csvjdbc", ".csv");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(getContent().getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static String getContent() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < LINES.length; i++) {
+            content.append(LINES[i]).append(TERMINATORS[i]);
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testLinePositions() throws Exception {
+        PositionedLineReader reader = new PositionedLineReader(file, UTF8);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long expectedPosition = 0;
+            for (int i = 0; i < LINES.length; i++) {
+                assertEquals(LINES[i], reader.readLine());
+                assertEquals(expectedPosition, reader.getLinePosition());
+                BufferedReader again = reader.openAt(randomAccessFile, reader.getLinePosition());
+                assertEquals(LINES[i], again.readLine());
+                expectedPosition += (LINES[i] + TERMINATORS[i]).getBytes(UTF8).length;
+            }
+            assertNull(reader.readLine());
+        } finally {
+            randomAccessFile.close();
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReadCharacters() throws Exception {
+        PositionedLineReader reader = new PositionedLineReader(file, UTF8);
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] chars = new char[3];
+            int n;
+            while ((n = reader.read(chars, 0, chars.length)) >= 0) {
+                content.append(chars, 0, n);
+                int c = reader.read();
+                if (c >= 0) {
+                    content.append((char) c);
+                }
+            }
+            assertEquals(getContent(), content.toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSeekableCharsets() {
+        assertTrue(PositionedLineReader.isSeekable(UTF8));
+        assertTrue(PositionedLineReader.isSeekable(Charset.forName("ISO-8859-1")));
+        assertFalse(PositionedLineReader.isSeekable(Charset.forName("UTF-16")));
+    }
+}
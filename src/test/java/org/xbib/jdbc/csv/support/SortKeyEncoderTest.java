@@ -0,0 +1,69 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class SortKeyEncoderTest {
+
+    private static final Object[] NUMBERS = {
+            Double.NEGATIVE_INFINITY, Long.MIN_VALUE, -1.5d, -1L, -0.5f, 0, 0.25d,
+            (short) 1, 1.5d, (byte) 2, 9007199254740992d, 9007199254740993L,
+            9007199254740994d, Long.MAX_VALUE - 1, Long.MAX_VALUE, 9.223372036854775807E18d,
+            Double.POSITIVE_INFINITY
+    };
+
+    @Test
+    public void testMixedNumbersAscending() {
+        checkOrder(new SortKeyEncoder(new int[]{0}, new int[]{1}), 1);
+    }
+
+    @Test
+    public void testMixedNumbersDescending() {
+        checkOrder(new SortKeyEncoder(new int[]{0}, new int[]{-1}), -1);
+    }
+
+    private void checkOrder(SortKeyEncoder encoder, int direction) {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            for (int j = 0; j < NUMBERS.length; j++) {
+                byte[] key1 = encoder.encode(new Object[]{NUMBERS[i]});
+                byte[] key2 = encoder.encode(new Object[]{NUMBERS[j]});
+                int expected = direction * exactCompare(NUMBERS[i], NUMBERS[j]);
+                assertEquals(NUMBERS[i] + " " + NUMBERS[j], expected,
+                        Integer.signum(SortKeyEncoder.compare(key1, key2)));
+            }
+        }
+    }
+
+    private static int exactCompare(Object n1, Object n2) {
+        return toBigDecimal(n1).compareTo(toBigDecimal(n2));
+    }
+
+    private static BigDecimal toBigDecimal(Object n) {
+        if (n instanceof Double || n instanceof Float) {
+            double d = ((Number) n).doubleValue();
+            if (Double.isInfinite(d)) {
+                return new BigDecimal(d > 0 ? "1e400" : "-1e400");
+            }
+            return new BigDecimal(d);
+        }
+        return BigDecimal.valueOf(((Number) n).longValue());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  CsvJdbc - a JDBC driver for CSV files
+ *  Copyright (C) 2001  Jonathan Ackerman
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.xbib.jdbc.csv.support;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillingRowStoreTest {
+
+    private static Object[] row(int i) {
+        return new Object[]{Integer.valueOf(i), "row " + i};
+    }
+
+    @Test
+    public void testSpilledRowsReadBack() throws Exception {
+        long budget = 3 * RowSerializer.estimateSize(row(0));
+        SpillingRowStore store = new SpillingRowStore(budget, null);
+        try {
+            Object[][] added = new Object[10][];
+            for (int i = 0; i < added.length; i++) {
+                added[i] = row(i);
+                store.add(added[i]);
+            }
+            assertEquals(10, store.size());
+            for (int i = 9; i >= 0; i--) {
+                Object[] row = store.get(i);
+                assertEquals(Integer.valueOf(i), row[0]);
+                assertEquals("row " + i, row[1]);
+                assertEquals("row " + i + " in memory", i < 3, row == added[i]);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReleasedRowsFreeBudget() throws Exception {
+        long budget = 2 * RowSerializer.estimateSize(row(99));
+        SpillingRowStore store = new SpillingRowStore(budget, null);
+        try {
+            Object[][] added = new Object[100][];
+            for (int i = 0; i < 3; i++) {
+                added[i] = row(i);
+                store.add(added[i]);
+            }
+            assertFalse(store.get(2) == added[2]);
+            int oldest = 0;
+            int newest = 1;
+            for (int i = 3; i < added.length; i++) {
+                /*
+                 * Release a row kept in memory, so that the next row fits in
+                 * memory although an earlier row was written to the file.
+                 */
+                store.release(oldest);
+                oldest = newest;
+                newest = i;
+                added[i] = row(i);
+                store.add(added[i]);
+                assertTrue(store.get(i) == added[i]);
+            }
+            assertEquals(Integer.valueOf(2), store.get(2)[0]);
+            assertEquals(Integer.valueOf(99), store.get(99)[0]);
+        } finally {
+            store.close();
+        }
+    }
+}